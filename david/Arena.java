@@ -0,0 +1,1202 @@
+
+import java.util.Arrays;
+import java.util.List;
+
+// Arena class holds the intermediate code of one function, as a tree of
+//	nodes numbered from 0 in the order the parser makes them.  A node is
+//	not an object but an index into parallel arrays of primitives: its
+//	kind, its first child, its next sibling, an int operand (a slot, or
+//	the number of arguments of a call), and a name (a number in the
+//	NamePool of the compilation, e.g. of a variable or a literal).
+// The children of a node are a list linked through their 'next' fields:
+//	- LITERAL, VALUE:	none.
+//	- CALL:				the arguments.
+//	- AND, OR:			the left and right expressions.
+//	- NOT, RETURN:		the expression.
+//	- ASSIGN:			the value assigned.
+//	- LOOP, ARM:		the condition, followed by the expressions of the body.
+//	- BRANCH:			the ARMs; an 'else' arm has the condition true.
+//	The expressions of a function body are likewise a list.
+// NOTE: The parser makes the children of a node before the node itself,
+//	except for the value of an ASSIGN, which it makes after (in source
+//	order).  Resolve(..) and Fold(..) are therefore single passes over
+//	the arrays in order; only code generation walks the tree, and does so
+//	on a stack of its own, so that deep expressions cannot overflow the
+//	Java stack.
+public class Arena {
+	public static final int		NONE = -1;
+
+	public static final int		LITERAL = 0;
+	public static final int		VALUE = 1;
+	public static final int		CALL = 2;
+	public static final int		AND = 3;
+	public static final int		OR = 4;
+	public static final int		NOT = 5;
+	public static final int		ASSIGN = 6;
+	public static final int		RETURN = 7;
+	public static final int		LOOP = 8;
+	public static final int		BRANCH = 9;
+	public static final int		ARM = 10;
+
+	// The names of the kinds, e.g. for Metrics.
+	public static final String[]	KINDS = { "literal", "value", "call", "and", "or", "not",
+			"assign", "return", "loop", "branch", "arm" };
+
+	public Arena(NamePool pool) {
+		names = pool;
+		op = new int[64];
+		first = new int[64];
+		next = new int[64];
+		operand = new int[64];
+		name = new int[64];
+		size = 0;
+	}
+
+	// ---- Construction ----
+
+	// Each of these methods makes a node of its kind and returns it; the
+	//	children given must already be made.  Names and literals are given
+	//	by their number in the pool, as the lexer interned them.
+	public int Literal(int text) {
+		return Node(LITERAL, NONE, 0, text);
+	}
+
+	public int Value(int varName) {
+		return Node(VALUE, NONE, -1, varName);
+	}
+
+	public int Call(int funcName, int args) {
+		int n = 0;
+		for (int a = args; a != NONE; a = next[a]) {
+			++n;
+		}
+		return Node(CALL, args, n, funcName);
+	}
+
+	public int And(int left, int right) {
+		next[left] = right;
+		return Node(AND, left, 0, NONE);
+	}
+
+	public int Or(int left, int right) {
+		next[left] = right;
+		return Node(OR, left, 0, NONE);
+	}
+
+	public int Not(int expr) {
+		return Node(NOT, expr, 0, NONE);
+	}
+
+	// The value of an assignment is attached once it has been parsed, by
+	//	Assign(node, value).
+	public int Assign(int varName) {
+		return Node(ASSIGN, NONE, -1, varName);
+	}
+
+	public void Assign(int node, int value) {
+		first[node] = value;
+	}
+
+	public int Return(int expr) {
+		return Node(RETURN, expr, 0, NONE);
+	}
+
+	public int Loop(int condition, int body) {
+		next[condition] = body;
+		return Node(LOOP, condition, 0, NONE);
+	}
+
+	public int Arm(int condition, int body) {
+		next[condition] = body;
+		return Node(ARM, condition, 0, NONE);
+	}
+
+	public int Branch(int arms) {
+		return Node(BRANCH, arms, 0, NONE);
+	}
+
+	// Link(..) method makes 'node' the next sibling of 'prev', in a list.
+	public void Link(int prev, int node) {
+		next[prev] = node;
+	}
+
+	// Trim(..) method drops the spare room of the arrays, once the function
+	//	is parsed.
+	public void Trim() {
+		op = Arrays.copyOf(op, size);
+		first = Arrays.copyOf(first, size);
+		next = Arrays.copyOf(next, size);
+		operand = Arrays.copyOf(operand, size);
+		name = Arrays.copyOf(name, size);
+	}
+
+	// Count(..) method adds the nodes of each kind to 'byKind', and returns
+	//	the number of nodes.
+	public int Count(int[] byKind) {
+		for (int n = 0; n < size; ++n) {
+			++byKind[op[n]];
+		}
+		return size;
+	}
+
+	private int Node(int kind, int child, int value, int nameIndex) {
+		if (size == op.length) {
+			int n = 2 * size;
+			op = Arrays.copyOf(op, n);
+			first = Arrays.copyOf(first, n);
+			next = Arrays.copyOf(next, n);
+			operand = Arrays.copyOf(operand, n);
+			name = Arrays.copyOf(name, n);
+		}
+		op[size] = kind;
+		first[size] = child;
+		next[size] = NONE;
+		operand[size] = value;
+		name[size] = nameIndex;
+		return size++;
+	}
+
+	// ---- Passes ----
+
+	// Resolve(..) method looks up the name of every variable used or
+	//	assigned, in source order, and keeps its slot as the operand.
+	public void Resolve(SymbolTable table)
+			throws SymbolError
+	{
+		for (int n = 0; n < size; ++n) {
+			if (op[n] == VALUE || op[n] == ASSIGN) {
+				operand[n] = table.translate(name[n]);
+			}
+		}
+	}
+
+	// Fold(..) method is the constant folding pass, over the function whose
+	//	body starts at 'body'; it returns the start of the folded body.  Each
+	//	node is folded after its children, and a node folded into another is
+	//	overwritten with it (see Replace(..)), so that its parent and its
+	//	siblings need not be told.
+	public int Fold(int body) {
+		for (int n = 0; n < size; ++n) {
+			int l = first[n];
+
+			switch (op[n]) {
+				// Operators of BASIS on literal operands are computed at
+				//	compile time.
+				case CALL:
+					FoldCall(n);
+					break;
+
+				// A literal left expression decides the && (||) at compile
+				//	time; the value of the whole is then either the left
+				//	literal or the right expression.
+				case AND:
+					if (op[l] == LITERAL) {
+						Replace(n, Truth(l) ? next[l] : l);
+					}
+					break;
+
+				case OR:
+					if (op[l] == LITERAL) {
+						Replace(n, Truth(l) ? l : next[l]);
+					}
+					break;
+
+				case NOT:
+					if (op[l] == LITERAL) {
+						name[n] = names.Intern(Truth(l) ? "false" : "true");
+						op[n] = LITERAL;
+						first[n] = NONE;
+					}
+					break;
+
+				// A loop whose condition folds to false is never entered, and
+				//	is left with just the value of its condition.
+				case LOOP:
+					next[l] = FoldBlock(next[l]);
+					if (IsFalse(l)) {
+						Replace(n, l);
+					}
+					break;
+
+				case BRANCH:
+					FoldBranch(n);
+					break;
+
+				default:
+					break;
+			}
+		}
+
+		return FoldBlock(body);
+	}
+
+	// FoldBlock(..) method drops the literals of a block of folded
+	//	expressions, other than the last expression, as they compute
+	//	nothing; the last one stays, as it is the value of the block.
+	private int FoldBlock(int block) {
+		int head = NONE;
+		int tail = NONE;
+
+		for (int t = block; t != NONE; t = next[t]) {
+			if (op[t] != LITERAL || next[t] == NONE) {
+				if (tail == NONE) {
+					head = t;
+				} else {
+					next[tail] = t;
+				}
+				tail = t;
+			}
+		}
+		return head;
+	}
+
+	// FoldBranch(..) method drops the arms whose condition folds to false,
+	//	and an arm whose condition folds to true ends the chain (as an
+	//	'else' arm does).  If no arm survives, the value of the branch is
+	//	its last condition.
+	private void FoldBranch(int n) {
+		int kept = NONE;
+		int tail = NONE;
+		int last = NONE;
+
+		for (int a = first[n]; a != NONE; a = next[a]) {
+			int c = first[a];
+			if (IsFalse(c)) {
+				last = c;
+				continue;
+			}
+			next[c] = FoldBlock(next[c]);
+			if (tail == NONE) {
+				kept = a;
+			} else {
+				next[tail] = a;
+			}
+			tail = a;
+			if (IsTrue(c)) {
+				break;
+			}
+		}
+
+		if (kept == NONE) {
+			Replace(n, last);
+			return;
+		}
+		next[tail] = NONE;
+		first[n] = kept;
+	}
+
+	private void FoldCall(int n) {
+		String fn = names.Name(name[n]);
+		switch (fn) {
+			case "+": case "-": case "*": case "/":
+			case "<": case "<=": case "==": case "!=": case ">": case ">=":
+				break;
+			default:
+				return;
+		}
+
+		String[] args = new String[operand[n]];
+		int i = 0;
+		for (int a = first[n]; a != NONE; a = next[a]) {
+			if (op[a] != LITERAL) {
+				return;
+			}
+			args[i++] = names.Name(name[a]);
+		}
+
+		String value = Evaluate(fn, args);
+		if (value != null) {
+			name[n] = names.Intern(value);
+			op[n] = LITERAL;
+			first[n] = NONE;
+			operand[n] = 0;
+		}
+	}
+
+	// Replace(..) method overwrites node 'n' with node 'by', but for its
+	//	place in the list of its siblings.
+	private void Replace(int n, int by) {
+		op[n] = op[by];
+		first[n] = first[by];
+		operand[n] = operand[by];
+		name[n] = name[by];
+	}
+
+	// Truth(..) method returns the truth value morpho gives a literal in a
+	//	condition; only false and null are false.  IsTrue(..) and IsFalse(..)
+	//	tell whether a node is a literal of known truth value.
+	private boolean Truth(int n) {
+		String v = names.Name(name[n]);
+		return !(v.equals("false") || v.equals("null"));
+	}
+
+	private boolean IsTrue(int n) {
+		return op[n] == LITERAL && Truth(n);
+	}
+
+	private boolean IsFalse(int n) {
+		return op[n] == LITERAL && !Truth(n);
+	}
+
+	// CanTailOpt(..) method tells whether the MASM of a node, generated in
+	//	tail position, returns from the function on every path (e.g. ends
+	//	with (CallR ..) or (Return)), so that no (Return) need follow it.
+	//	A branch does if its last arm is always taken (an 'else' arm).
+	public boolean CanTailOpt(int n) {
+		switch (op[n]) {
+			case CALL:
+			case RETURN:
+				return true;
+			case BRANCH:
+				int a = first[n];
+				while (next[a] != NONE) {
+					a = next[a];
+				}
+				return IsTrue(first[a]);
+			default:
+				return false;
+		}
+	}
+
+	// Calls(..) method adds the MASM names of the functions called by the
+	//	code from 'body' to 'callees'.  Only the tree as folded is walked,
+	//	so calls that were folded away, or dropped with the arm or loop they
+	//	were in, are not among them.
+	public void Calls(int body, List<String> callees) {
+		int[]	pending = new int[16];
+		int		top = 0;
+
+		pending[top++] = body;
+		while (top > 0) {
+			for (int n = pending[--top]; n != NONE; n = next[n]) {
+				if (op[n] == CALL) {
+					callees.add(names.Name(name[n]) + "[f" + Integer.toString(operand[n]) + "]");
+				}
+				if (first[n] != NONE) {
+					if (top == pending.length) {
+						pending = Arrays.copyOf(pending, 2 * top);
+					}
+					pending[top++] = first[n];
+				}
+			}
+		}
+	}
+
+	// ---- Code generation ----
+
+	// MasmCode(..) method generates the MASM of the function body starting
+	//	at 'body'.  The last expression is generated in tail position, and
+	//	unless it returns by itself, a (Return) follows it.  Given 'push',
+	//	_acc_ is pushed first: by the first instruction of the body, if that
+	//	loads a leaf (see Lead(..)), and otherwise by a (Push) of its own.
+	public void MasmCode(MasmWriter out, int body, boolean push)
+			throws CompilerError
+	{
+		Frames	stack = new Frames();
+		int		last = NONE;
+
+		if (push) {
+			stack.fused = Lead(body);
+			if (stack.fused == NONE) {
+				out.Emit("(Push)");
+			}
+		}
+
+		for (int t = body; t != NONE; t = next[t]) {
+			Generate(out, stack, t, next[t] == NONE);
+			last = t;
+		}
+		if (!CanTailOpt(last)) {
+			out.Emit("(Return)");
+		}
+	}
+
+	// Lead(..) method returns the leaf whose load is the first instruction of
+	//	the MASM of 'n', or NONE if anything else comes first (a label, say,
+	//	which must not come between a (Push) and the load it is fused into).
+	//	A loop starts with the test of its condition, unless that is true.
+	private int Lead(int n) {
+		while (true) {
+			switch (op[n]) {
+				case LOOP:
+					if (IsTrue(first[n])) {
+						return NONE;
+					}
+					n = first[n];
+					break;
+				case LITERAL:
+				case VALUE:
+					return n;
+				case CALL:
+				case AND:
+				case OR:
+				case NOT:
+				case ASSIGN:
+				case RETURN:
+					if (first[n] == NONE) {
+						return NONE;
+					}
+					n = first[n];
+					break;
+				default:
+					return NONE;
+			}
+		}
+	}
+
+	// Generate(..) method generates the MASM of the expression 'root'.
+	//	Every node on the stack is generated up to its next child, which is
+	//	pushed; when that is done, the node carries on from where it was.
+	//	A condition pushed as such (see Frames.Test(..)) is generated as
+	//	jumps, by Jump(..).
+	private void Generate(MasmWriter out, Frames s, int root, boolean isTail)
+			throws CompilerError
+	{
+		s.Push(root, isTail);
+		while (s.top > 0) {
+			final int		f = s.top - 1;
+			final int		n = s.node[f];
+			final boolean	tail = s.tail[f];
+
+			if (s.jump[f] != NONE) {
+				Jump(out, s, f, n);
+				continue;
+			}
+
+			switch (op[n]) {
+				case LITERAL:
+				case VALUE:
+					Leaf(out, n, s.Fuse(n));
+					s.Pop();
+					break;
+
+				// The arguments are evaluated in order left-to-right; each
+				//	result but the last is pushed onto the stack as we go, the
+				//	last is in _acc_ when the actual call is made.  An argument
+				//	that is a leaf is loaded by the fused form that pushes the
+				//	one before it, (FetchP ..) or (MakeValP ..).  A call in
+				//	tail position is made with (CallR ..), which returns.
+				case CALL: {
+					int a = (s.step[f]++ == 0 ? first[n] : next[s.at[f]]);
+					if (a != NONE) {
+						s.at[f] = a;
+						if (a == first[n]) {
+							Child(out, s, a, false);
+						} else if (op[a] == LITERAL || op[a] == VALUE) {
+							Leaf(out, a, true);
+						} else {
+							out.Emit("(Push)");
+							s.Push(a, false);
+						}
+						break;
+					}
+					String form = (tail ? "(CallR #\"" : "(Call #\"");
+					out.Emit(form, names.Name(name[n]), Arity(operand[n]));
+					s.Pop();
+					break;
+				}
+
+				// The desired behaviour of && (||) is the short-circuit; if the
+				//	left expression evaluates as false (true), then the right
+				//	expression is never evaluated.  Its value is the value of
+				//	the whole, so it is in tail position whenever the whole is.
+				case AND:
+				case OR:
+					switch (s.step[f]++) {
+						case 0:
+							s.Label(out.NewLabel());
+							Child(out, s, first[n], false);
+							break;
+						case 1:
+							out.Emit(op[n] == AND ? "(GoFalse " : "(GoTrue ", s.labels[s.lbl[f]], ")");
+							Child(out, s, next[first[n]], tail);
+							break;
+						default:
+							out.Emit(s.labels[s.lbl[f]], ":");
+							s.Pop();
+							break;
+					}
+					break;
+
+				case NOT:
+					if (s.step[f]++ == 0) {
+						Child(out, s, first[n], false);
+					} else {
+						out.Emit("(Not)");
+						s.Pop();
+					}
+					break;
+
+				// If an assignment is the tail operation of a function, then
+				//	we don't even need to perform the assignment!  Instead we
+				//	just leave the value that would be assigned in the acc
+				//	register, and it becomes our return value.
+				case ASSIGN:
+					if (s.step[f]++ == 0) {
+						Child(out, s, first[n], false);
+						break;
+					}
+					if (operand[n] < 0) {
+						throw new FatalError("Unresolved symbol '" + names.Name(name[n]) + "'.");
+					}
+					if (!tail) {
+						out.Emit("(Store ", operand[n], ")");
+					}
+					s.Pop();
+					break;
+
+				// The result is always evaluated in tail position; if it
+				//	returns by itself, no (Return) code follows it.
+				case RETURN:
+					if (s.step[f]++ == 0) {
+						Child(out, s, first[n], true);
+						break;
+					}
+					if (!CanTailOpt(first[n])) {
+						out.Emit("(Return)");
+					}
+					s.Pop();
+					break;
+
+				// Each loop requires 2 labels, its body and its exit.  The loop
+				//	is rotated: its condition is tested once on entry, jumping
+				//	to the exit if false, and again after the body, jumping back
+				//	to the body if true, so that an iteration takes a single
+				//	jump.  A loop whose condition is true does not test it at
+				//	all.  The condition is jumped on, unless the loop is in tail
+				//	position and the jumps would not leave its value in _acc_,
+				//	which is then the value of the loop.
+				case LOOP: {
+					final int	c = first[n];
+
+					switch (s.step[f]) {
+						case 0:
+							s.Label(out.NewLabel());
+							s.Label(out.NewLabel());
+							s.step[f] = 1;
+							s.at[f] = c;
+							if (IsTrue(c)) {
+								break;
+							}
+							if (!tail || Exact(c)) {
+								s.Test(c, s.lbl[f] + 1, false);
+							} else {
+								Child(out, s, c, false);
+							}
+							break;
+						case 1:
+							if (tail && !IsTrue(c) && !Exact(c)) {
+								out.Emit("(GoFalse ", s.labels[s.lbl[f] + 1], ")");
+							}
+							out.Emit(s.labels[s.lbl[f]], ":");
+							s.step[f] = 2;
+							// Fall through, to the body.
+						case 2: {
+							int t = next[s.at[f]];
+							if (t != NONE) {
+								s.at[f] = t;
+								Child(out, s, t, false);
+								break;
+							}
+							s.step[f] = 3;
+							if (IsTrue(c)) {
+								out.Emit("(Go ", s.labels[s.lbl[f]], ")");
+							} else if (!tail || Exact(c)) {
+								s.Test(c, s.lbl[f], true);
+							} else {
+								Child(out, s, c, false);
+							}
+							break;
+						}
+						default:
+							if (tail && !IsTrue(c) && !Exact(c)) {
+								out.Emit("(GoTrue ", s.labels[s.lbl[f]], ")");
+							}
+							out.Emit(s.labels[s.lbl[f] + 1], ":");
+							s.Pop();
+							break;
+					}
+					break;
+				}
+
+				// A branch labels its exit, and then the check of each of its
+				//	arms, before any of them is generated.  The arms are then
+				//	generated one after another, so that a long 'elseif' chain
+				//	takes no more stack than a single arm.  A chain comparing a
+				//	variable to integer keys first dispatches on it (see
+				//	Dispatch(..)), and its arms then skip their tests.
+				case BRANCH: {
+					if (s.step[f] == 0) {
+						s.Label(out.NewLabel());
+						for (int a = first[n]; a != NONE; a = next[a]) {
+							s.Label(out.NewLabel());
+						}
+						s.at[f] = first[n];
+						int v = Keyed(n);
+						if (v != NONE) {
+							Dispatch(out, s, f, n, v);
+							s.dispatch[f] = true;
+						}
+					} else {
+						s.at[f] = next[s.at[f]];
+					}
+					if (s.at[f] == NONE) {
+						s.Pop();
+						break;
+					}
+					++s.step[f];
+					Child(out, s, s.at[f], tail);
+					break;
+				}
+
+				// The k-th arm of the branch below it on the stack.  An arm
+				//	that is always taken needs no test, unless the value of its
+				//	condition is also the value of the branch (an empty body).
+				//	The condition jumps to the next arm if it is false, unless
+				//	its value is that of the branch, in tail position (if the
+				//	body is empty, or no arm is taken), and the jumps would not
+				//	leave it in _acc_.  An arm dispatched to has been tested
+				//	already.  In tail position the last expression of the arm
+				//	is in tail position too, and the arm returns rather than
+				//	jumping to the exit.
+				case ARM: {
+					final int	c = first[n];
+					final int	exit = s.lbl[f - 1];
+					final int	k = s.step[f - 1];
+					final boolean	test = (IsTrue(c) ? next[c] == NONE : !s.dispatch[f - 1]);
+					final int	fail = (next[n] != NONE ? exit + k + 1 : exit);
+
+					switch (s.step[f]) {
+						case 0:
+							out.Emit(s.labels[exit + k], ":");
+							s.step[f] = 1;
+							s.at[f] = c;
+							if (!test) {
+								break;
+							}
+							if (!tail || (next[c] != NONE && next[n] != NONE) || Exact(c)) {
+								s.step[f] = 2;
+								s.Test(c, fail, false);
+							} else {
+								Child(out, s, c, false);
+							}
+							break;
+						case 1:
+							if (test) {
+								out.Emit("(GoFalse ", s.labels[fail], ")");
+							}
+							s.step[f] = 2;
+							// Fall through, to the body.
+						default: {
+							int prev = s.at[f];
+							int t = next[prev];
+							if (t != NONE) {
+								s.at[f] = t;
+								Child(out, s, t, tail && next[t] == NONE);
+								break;
+							}
+							if (!tail) {
+								out.Emit("(Go ", s.labels[exit], ")");
+							} else if (prev == c || !CanTailOpt(prev)) {
+								out.Emit("(Return)");
+							}
+							if (next[n] == NONE) {
+								out.Emit(s.labels[exit], ":");
+							}
+							s.Pop();
+							break;
+						}
+					}
+					break;
+				}
+
+				default:
+					throw new FatalError("Unknown intermediate code " + op[n] + ".");
+			}
+		}
+	}
+
+	// Keyed(..) method returns the VALUE node of the variable that every arm
+	//	of the branch 'n' compares to an integer literal (see Key(..)), but
+	//	for an 'else' arm at the end, or NONE if its arms are not all such or
+	//	are fewer than DISPATCH.
+	private int Keyed(int n) {
+		int		v = NONE;
+		int		count = 0;
+
+		for (int a = first[n]; a != NONE; a = next[a]) {
+			int c = first[a];
+			if (IsTrue(c) && next[a] == NONE) {
+				break;
+			}
+			int key = Key(c);
+			if (key == NONE) {
+				return NONE;
+			}
+			int u = (key == first[c] ? next[key] : first[c]);
+			if (v == NONE) {
+				v = u;
+			} else if (operand[u] != operand[v]) {
+				return NONE;
+			}
+			++count;
+		}
+		return (count >= DISPATCH ? v : NONE);
+	}
+
+	// Key(..) method returns the integer literal that the condition 'c'
+	//	compares a variable to, as 'v == 7' or '7 == v', or NONE.
+	private int Key(int c) {
+		if (op[c] != CALL || operand[c] != 2 || !names.Name(name[c]).equals("==")) {
+			return NONE;
+		}
+		int l = first[c];
+		int r = next[l];
+		int key = (op[l] == LITERAL ? l : r);
+		int u = (key == l ? r : l);
+		if (op[key] != LITERAL || op[u] != VALUE || !(Number(names.Name(name[key])) instanceof Integer)) {
+			return NONE;
+		}
+		return key;
+	}
+
+	// Dispatch(..) method generates the dispatch of the branch 'n', at 'f' on
+	//	the stack, on the variable of 'v': it jumps to the label of the first
+	//	arm whose key equals it, or else to the 'else' arm or exit.  Morpho
+	//	has no indexed jump, so an integer is looked up by a binary search of
+	//	the keys (see Search(..)), and anything else compared to each key in
+	//	turn, as the chain would (a double may yet equal a key; < would fail
+	//	on a string).  Either way a miss leaves false in _acc_, as the last
+	//	test of the chain would.
+	private void Dispatch(MasmWriter out, Frames s, int f, int n, int v)
+			throws CompilerError
+	{
+		final int	exit = s.lbl[f];
+		final int	slot = operand[v];
+		String		miss = s.labels[exit];
+		long[]		arms = new long[16];
+		int			count = 0;
+		int			k = 0;
+
+		if (slot < 0) {
+			throw new FatalError("Unresolved symbol '" + names.Name(name[v]) + "'.");
+		}
+
+		String linear = out.NewLabel();
+		out.Emit("(Fetch ", slot, ")");
+		out.Emit("(Call #\"isInteger[f1]\" 1)");
+		out.Emit("(GoFalse ", linear, ")");
+
+		// The keys with the number of their arm, in order of key and then of
+		//	arm; only the first arm of a key can be taken.
+		for (int a = first[n]; a != NONE; a = next[a]) {
+			int key = Key(first[a]);
+			++k;
+			if (key == NONE) {
+				miss = s.labels[exit + k];
+				break;
+			}
+			if (count == arms.length) {
+				arms = Arrays.copyOf(arms, 2 * count);
+			}
+			arms[count++] = ((long) Number(names.Name(name[key])).intValue() << 32) | k;
+		}
+		Arrays.sort(arms, 0, count);
+
+		int[]		keys = new int[count];
+		String[]	to = new String[count];
+		int			distinct = 0;
+		for (int i = 0; i < count; ++i) {
+			int key = (int) (arms[i] >> 32);
+			if (distinct == 0 || keys[distinct - 1] != key) {
+				keys[distinct] = key;
+				to[distinct++] = s.labels[exit + (int) arms[i]];
+			}
+		}
+		Search(out, slot, keys, to, 0, distinct, miss);
+
+		out.Emit(linear, ":");
+		k = 0;
+		for (int a = first[n]; a != NONE; a = next[a]) {
+			int key = Key(first[a]);
+			++k;
+			if (key == NONE) {
+				break;
+			}
+			out.Emit("(Fetch ", slot, ")");
+			out.Emit("(MakeValP ", names.Name(name[key]), ")");
+			out.Emit("(Call #\"==[f2]\" 2)");
+			out.Emit("(GoTrue ", s.labels[exit + k], ")");
+		}
+		out.Emit("(Go ", miss, ")");
+	}
+
+	// Search(..) method generates the binary search of the integer in 'slot'
+	//	among the sorted keys from 'lo' up to 'hi', jumping to the label in
+	//	'to' of the key it equals, or to 'miss'.  The upper half is searched
+	//	by a recursive call, so the recursion is only as deep as the log of
+	//	the number of keys; the last few keys are each tested with ==.
+	private void Search(MasmWriter out, int slot, int[] keys, String[] to, int lo, int hi, String miss)
+			throws CompilerError
+	{
+		while (hi - lo > LINEAR) {
+			int mid = (lo + hi) >>> 1;
+			String lower = out.NewLabel();
+			out.Emit("(Fetch ", slot, ")");
+			out.Emit("(MakeValP ", keys[mid], ")");
+			out.Emit("(Call #\"<[f2]\" 2)");
+			out.Emit("(GoTrue ", lower, ")");
+			Search(out, slot, keys, to, mid, hi, miss);
+			out.Emit(lower, ":");
+			hi = mid;
+		}
+		for (int i = lo; i < hi; ++i) {
+			out.Emit("(Fetch ", slot, ")");
+			out.Emit("(MakeValP ", keys[i], ")");
+			out.Emit("(Call #\"==[f2]\" 2)");
+			out.Emit("(GoTrue ", to[i], ")");
+		}
+		out.Emit("(Go ", miss, ")");
+	}
+
+	// Jump(..) method generates the condition 'n', on top of the stack at 'f',
+	//	as jumping code: it jumps to the label of the frame if the truth of
+	//	'n' is that of the frame, and otherwise falls through.  The value of
+	//	&&, || and ! is never made, only their operands are tested, and a
+	//	literal jumps (or not) at compile time.
+	private void Jump(MasmWriter out, Frames s, int f, int n)
+			throws CompilerError
+	{
+		final int		to = s.jump[f];
+		final boolean	when = s.truth[f];
+
+		switch (op[n]) {
+			// !x jumps where x would, on the opposite truth.
+			case NOT:
+				s.node[f] = first[n];
+				s.truth[f] = !when;
+				break;
+
+			case LITERAL:
+				if (Truth(n) == when) {
+					out.Emit("(Go ", s.labels[to], ")");
+				}
+				s.Pop();
+				break;
+
+			// If && is to jump when false (|| when true), either operand
+			//	jumps straight to the label.  Otherwise the left operand
+			//	jumps past the right one when it decides the whole the other
+			//	way, and only the right one jumps to the label.
+			case AND:
+			case OR: {
+				final boolean	either = ((op[n] == AND) != when);
+
+				switch (s.step[f]++) {
+					case 0:
+						if (either) {
+							s.Test(first[n], to, when);
+						} else {
+							s.Label(out.NewLabel());
+							s.Test(first[n], s.lbl[f], !when);
+						}
+						break;
+					case 1:
+						s.Test(next[first[n]], to, when);
+						break;
+					default:
+						if (!either) {
+							out.Emit(s.labels[s.lbl[f]], ":");
+						}
+						s.Pop();
+						break;
+				}
+				break;
+			}
+
+			// Any other condition is evaluated, and its value tested.
+			default:
+				if (s.step[f]++ == 0) {
+					Child(out, s, n, false);
+					break;
+				}
+				out.Emit(when ? "(GoTrue " : "(GoFalse ", s.labels[to], ")");
+				s.Pop();
+				break;
+		}
+	}
+
+	// Exact(..) method tells whether the jumps of the condition 'n' leave
+	//	_acc_ with the value of 'n', wherever they go, as when it is tested
+	//	after evaluating it.  They do unless a ! or a literal is among the
+	//	operands of its && and ||, as neither makes its value.
+	private boolean Exact(int n) {
+		int[]	pending = new int[8];
+		int		top = 0;
+
+		pending[top++] = n;
+		while (top > 0) {
+			int c = pending[--top];
+			switch (op[c]) {
+				case NOT:
+				case LITERAL:
+					return false;
+				case AND:
+				case OR:
+					if (top + 2 > pending.length) {
+						pending = Arrays.copyOf(pending, 2 * pending.length);
+					}
+					pending[top++] = first[c];
+					pending[top++] = next[first[c]];
+					break;
+				default:
+					break;
+			}
+		}
+		return true;
+	}
+
+	// A branch of DISPATCH or more keyed arms dispatches on its variable; its
+	//	binary search ends by testing LINEAR keys or fewer one by one.
+	private static final int	DISPATCH = 8;
+	private static final int	LINEAR = 3;
+
+	// Arity(..) method returns the end of a call of 'n' arguments, after the
+	//	name of the function; the common ones are made just once.
+	private static String Arity(int n) {
+		if (n < ARITIES.length) {
+			return ARITIES[n];
+		}
+		return "[f" + Integer.toString(n) + "]\" " + Integer.toString(n) + ")";
+	}
+
+	private static final String[] ARITIES = {
+		"[f0]\" 0)", "[f1]\" 1)", "[f2]\" 2)", "[f3]\" 3)", "[f4]\" 4)", "[f5]\" 5)", "[f6]\" 6)", "[f7]\" 7)" };
+
+	// Child(..) method generates a leaf child on the spot, and pushes any
+	//	other child to be generated next.
+	private void Child(MasmWriter out, Frames s, int n, boolean isTail)
+			throws CompilerError
+	{
+		if (op[n] == LITERAL || op[n] == VALUE) {
+			Leaf(out, n, s.Fuse(n));
+		} else {
+			s.Push(n, isTail);
+		}
+	}
+
+	// Leaf(..) method loads a literal or variable into _acc_, first pushing
+	//	_acc_ if 'push' is set.
+	private void Leaf(MasmWriter out, int n, boolean push)
+			throws CompilerError
+	{
+		if (op[n] == LITERAL) {
+			out.Emit(push ? "(MakeValP " : "(MakeVal ", names.Name(name[n]), ")");
+			return;
+		}
+		if (operand[n] < 0) {
+			throw new FatalError("Unresolved symbol '" + names.Name(name[n]) + "'.");
+		}
+		out.Emit(push ? "(FetchP " : "(Fetch ", operand[n], ")");
+	}
+
+	// Frames class is the stack of Generate(..): each node being generated,
+	//	whether it is in tail position, how far along it is, the child it is
+	//	at, and where its labels start on the stack of labels.  A condition
+	//	generated as jumps has the label it jumps to (on the stack of labels)
+	//	and the truth it jumps on; any other node has NONE for its label.  A
+	//	branch may dispatch to its arms (see Dispatch(..)).
+	//	'fused' is the leaf that pushes _acc_ as it loads (see MasmCode(..)),
+	//	if any.
+	private static final class Frames {
+		int[]		node = new int[16];
+		boolean[]	tail = new boolean[16];
+		int[]		step = new int[16];
+		int[]		at = new int[16];
+		int[]		lbl = new int[16];
+		int[]		jump = new int[16];
+		boolean[]	truth = new boolean[16];
+		boolean[]	dispatch = new boolean[16];
+		int			top = 0;
+
+		String[]	labels = new String[16];
+		int			labelTop = 0;
+
+		int			fused = NONE;
+
+		void Push(int n, boolean isTail) {
+			if (top == node.length) {
+				int m = 2 * top;
+				node = Arrays.copyOf(node, m);
+				tail = Arrays.copyOf(tail, m);
+				step = Arrays.copyOf(step, m);
+				at = Arrays.copyOf(at, m);
+				lbl = Arrays.copyOf(lbl, m);
+				jump = Arrays.copyOf(jump, m);
+				truth = Arrays.copyOf(truth, m);
+				dispatch = Arrays.copyOf(dispatch, m);
+			}
+			node[top] = n;
+			tail[top] = isTail;
+			step[top] = 0;
+			at[top] = NONE;
+			lbl[top] = labelTop;
+			jump[top] = NONE;
+			dispatch[top] = false;
+			++top;
+		}
+
+		// Test(..) method pushes the condition 'n', to jump to the label at
+		//	'label' on the stack of labels if its truth is 'sense'.
+		void Test(int n, int label, boolean sense) {
+			Push(n, false);
+			jump[top - 1] = label;
+			truth[top - 1] = sense;
+		}
+
+		// Pop(..) method pops the top node, and the labels it made.
+		void Pop() {
+			--top;
+			Arrays.fill(labels, lbl[top], labelTop, null);
+			labelTop = lbl[top];
+		}
+
+		// Fuse(..) method tells whether the leaf 'n' is to push _acc_ as it
+		//	loads; only its first load does (a loop tests its condition twice).
+		boolean Fuse(int n) {
+			if (n != fused) {
+				return false;
+			}
+			fused = NONE;
+			return true;
+		}
+
+		void Label(String label) {
+			if (labelTop == labels.length) {
+				labels = Arrays.copyOf(labels, 2 * labelTop);
+			}
+			labels[labelTop++] = label;
+		}
+	}
+
+	// ---- Compile time evaluation ----
+
+	// Static Evaluate(..) method computes a call of the BASIS operator 'op'
+	//	on literal arguments, returning the resulting literal, or NULL if it
+	//	cannot be done at compile time.  Integers are 32 bit and wrap around;
+	//	any double operand makes the result a double.  Division by zero is
+	//	left to fail at runtime.
+	public static String Evaluate(String op, String[] args) {
+		Number[] n = new Number[args.length];
+		boolean real = false;
+
+		for (int i = 0; i < args.length; ++i) {
+			n[i] = Number(args[i]);
+			real = real || (n[i] instanceof Double);
+		}
+
+		if (args.length == 2 && (op.equals("==") || op.equals("!="))) {
+			if (IsConstant(args[0]) && IsConstant(args[1])) {
+				return Bool(args[0].equals(args[1]) == op.equals("=="));
+			}
+		}
+		for (Number x : n) {
+			if (x == null) {
+				return null;
+			}
+		}
+
+		if (args.length == 1 && op.equals("-")) {
+			return (real ? Real(-n[0].doubleValue()) : Integer.toString(-n[0].intValue()));
+		}
+		if (args.length != 2) {
+			return null;
+		}
+
+		if (real) {
+			double a = n[0].doubleValue();
+			double b = n[1].doubleValue();
+			switch (op) {
+				case "+":	return Real(a + b);
+				case "-":	return Real(a - b);
+				case "*":	return Real(a * b);
+				case "/":	return (b == 0.0 ? null : Real(a / b));
+				case "<":	return Bool(a < b);
+				case "<=":	return Bool(a <= b);
+				case "==":	return Bool(a == b);
+				case "!=":	return Bool(a != b);
+				case ">":	return Bool(a > b);
+				case ">=":	return Bool(a >= b);
+				default:	return null;
+			}
+		}
+
+		int a = n[0].intValue();
+		int b = n[1].intValue();
+		switch (op) {
+			case "+":	return Integer.toString(a + b);
+			case "-":	return Integer.toString(a - b);
+			case "*":	return Integer.toString(a * b);
+			case "/":	return (b == 0 ? null : Integer.toString(a / b));
+			case "<":	return Bool(a < b);
+			case "<=":	return Bool(a <= b);
+			case "==":	return Bool(a == b);
+			case "!=":	return Bool(a != b);
+			case ">":	return Bool(a > b);
+			case ">=":	return Bool(a >= b);
+			default:	return null;
+		}
+	}
+
+	// Number(..) method returns the value of a numeric literal as an Integer
+	//	or Double, or NULL for strings, characters, constants and integers
+	//	too large for morpho's int.
+	// NOTE: Every literal operand of every operator comes through here, so
+	//	the form is checked by hand rather than with a regular expression.
+	private static Number Number(String value) {
+		if (value.isEmpty() || !(value.charAt(0) == '-' || Character.isDigit(value.charAt(0)))) {
+			return null;
+		}
+
+		boolean real = false;
+		for (int i = 1; i < value.length(); ++i) {
+			char c = value.charAt(i);
+			if (c == '.' || c == 'e' || c == 'E') {
+				real = true;
+			} else if (!(Character.isDigit(c) || c == '-' || c == '+')) {
+				return null;
+			}
+		}
+
+		try {
+			if (!real) {
+				return Integer.valueOf(value);
+			}
+			double d = Double.parseDouble(value);
+			return (Double.isInfinite(d) ? null : (Number) d);
+		} catch (NumberFormatException e) {
+			// Out of range.
+			return null;
+		}
+	}
+
+	private static boolean IsConstant(String v) {
+		return v.equals("true") || v.equals("false") || v.equals("null");
+	}
+
+	private static String Bool(boolean b) {
+		return (b ? "true" : "false");
+	}
+
+	private static String Real(double d) {
+		return (Double.isNaN(d) || Double.isInfinite(d) ? null : Double.toString(d));
+	}
+
+	private final NamePool	names;
+	private int[]			op;
+	private int[]			first;
+	private int[]			next;
+	private int[]			operand;
+	private int[]			name;
+	private int				size;
+}
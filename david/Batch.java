@@ -0,0 +1,163 @@
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.stream.Stream;
+
+// Batch class implements the '--batch' mode of the Compiler.  Every .nm file
+//	named on the command line, or found anywhere below a named directory, is
+//	compiled into a .masm file beside it.  All files are compiled inside the
+//	one JVM on a work-stealing pool, so JVM startup and JIT warm-up are paid
+//	for once per batch rather than once per file.
+// Each compilation writes its diagnostics into a private buffer, which is
+//	printed in one piece (in input order) along with the exit status of that
+//	file.  Aggregate throughput is reported at the end.
+// Given --cache _dir_ before the sources, compilations are looked up in and
+//	added to the DiskCache there, which the pool's threads share.
+// Given --stats, each compilation is measured (see Metrics), its metrics are
+//	printed as JSON with its diagnostics, and the histograms of them all
+//	after the throughput.
+public class Batch {
+
+	// Run(..) method compiles every source named in args[first..], returning
+	//	0 if all of them compiled, or 1 if any of them failed.
+	public static int Run(String[] args, int first) {
+		ArrayList<String> sources = new ArrayList<>();
+		DiskCache cache = null;
+		Metrics.Totals totals = null;
+
+		while (first < args.length && args[first].startsWith("--")) {
+			if (args[first].equals("--stats")) {
+				totals = new Metrics.Totals();
+				++first;
+			} else if (first + 1 < args.length && args[first].equals("--cache")) {
+				try {
+					cache = DiskCache.Open(args[first + 1]);
+				} catch (IOException e) {
+					System.out.println("Cannot open cache " + args[first + 1] + ": " + e.getMessage());
+					return 1;
+				}
+				first += 2;
+			} else {
+				break;
+			}
+		}
+		for (int i = first; i < args.length; ++i) {
+			try {
+				Collect(Paths.get(args[i]), sources);
+			} catch (IOException e) {
+				System.out.println("Cannot read " + args[i] + ": " + e.getMessage());
+				return 1;
+			}
+		}
+		if (sources.isEmpty()) {
+			System.out.println("Compiler --batch requires at least one .nm file or directory.");
+			return 1;
+		}
+
+		ForkJoinPool pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+		ArrayList<ForkJoinTask<Result>> jobs = new ArrayList<>();
+		long start = System.nanoTime();
+
+		final DiskCache shared = cache;
+		final boolean measure = (totals != null);
+		for (String s : sources) {
+			jobs.add(pool.submit(() -> Compile(s, shared, measure)));
+		}
+
+		int		failed = 0;
+		long	lines = 0;
+		for (ForkJoinTask<Result> job : jobs) {
+			Result r = job.join();
+			System.out.println("==> " + r.file + " (exit " + (r.ok ? "0" : "1") + ")");
+			System.out.print(r.diagnostics);
+			if (!r.ok) {
+				++failed;
+			}
+			lines += r.lines;
+			if (r.metrics != null) {
+				totals.Add(r.metrics);
+			}
+		}
+		pool.shutdown();
+
+		double seconds = (System.nanoTime() - start) / 1e9;
+		System.out.println(String.format("Batch: %d files (%d failed), %d lines in %.3fs -- %.1f files/s, %.1f lines/s",
+				sources.size(), failed, lines, seconds,
+				sources.size() / seconds, lines / seconds));
+		if (totals != null) {
+			System.out.println(totals.Json());
+		}
+
+		return (failed == 0 ? 0 : 1);
+	}
+
+	// Collect(..) method adds 'p' to the list of sources if it is a file, or
+	//	every *.nm file below it if it is a directory.
+	private static void Collect(Path p, ArrayList<String> sources)
+			throws IOException
+	{
+		if (Files.isDirectory(p)) {
+			try (Stream<Path> walk = Files.walk(p)) {
+				walk.filter(f -> Files.isRegularFile(f) && f.toString().endsWith(".nm"))
+					.sorted()
+					.forEach(f -> sources.add(f.toString()));
+			}
+		} else {
+			sources.add(p.toString());
+		}
+	}
+
+	private static Result Compile(String file, DiskCache cache, boolean measure) {
+		ByteArrayOutputStream	buffer = new ByteArrayOutputStream();
+		PrintStream				log = new PrintStream(buffer, true);
+		boolean					ok = false;
+		int						lines = 0;
+		Metrics					m = null;
+
+		String out = (file.endsWith(".nm") ? file.substring(0, file.length() - ".nm".length()) : file) + ".masm";
+		try {
+			Compiler c = new Compiler(file, out, log);
+			if (cache != null) {
+				c.Cache(cache);
+			}
+			m = (measure ? c.Measure() : null);
+			ok = c.Build();
+			lines = c.SourceLines();
+			if (m != null) {
+				log.println(m.Json());
+			}
+		} catch (IOException e) {
+			log.println("Failed to construct compiler.");
+			log.println(e.getMessage());
+		} catch (IllegalArgumentException e) {
+			log.println("Invalid argument.");
+			log.println(e.getMessage());
+		}
+
+		log.flush();
+		return new Result(file, ok, lines, buffer.toString(), m);
+	}
+
+	private static class Result {
+		final String	file;
+		final boolean	ok;
+		final int		lines;
+		final String	diagnostics;
+		final Metrics	metrics;
+
+		Result(String f, boolean success, int lineCount, String diag, Metrics measured) {
+			file = f;
+			ok = success;
+			lines = lineCount;
+			diagnostics = diag;
+			metrics = measured;
+		}
+	}
+}
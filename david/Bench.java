@@ -0,0 +1,682 @@
+
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Bench class contains the compiler's own benchmarks.  Usage:
+//	java -cp . Bench [lexer|parser|codegen|build|all] [file.nm ..]
+//		Times each phase of the compiler separately over the given sources,
+//		or over the shipped samples and two large generated programs.  Each
+//		result is the mean over the measured iterations (after warm-up) of
+//		the time per compilation, and of the bytes allocated per source line
+//		by all threads, as reported by the JVM's ThreadMXBean.
+//	java -cp . Bench ir [file.nm ..]
+//		Heap retained by the parsed program (its intermediate code, symbol
+//		tables and names), per source token, and the time to generate code
+//		from it.  Best run with -XX:+UseSerialGC, for a stable heap count;
+//		only the count of a large program is meaningful.
+//	java -cp . Bench scaling [functions] [cores]
+//		Per-function parallel code generation (TcProgram) on 1..N cores,
+//		where N defaults to the number of available processors.
+//	java -cp . Bench incremental [functions]
+//		Full build of a Generator program against a rebuild, with a warm
+//		FunctionCache, of the same program with one function edited.
+//	java -cp . Bench curve [functions|sum|chain|elseif|loops] [max]
+//		Build time and allocation of Generator programs of doubling size,
+//		to find the shapes on which the compiler scales superlinearly.
+//	java -cp . Bench lexstress [threads] [file.nm ..]
+//		Checks that lexers running side by side do not disturb each other:
+//		hundreds of sources are lexed on many threads at once, and every
+//		token must match a sequential pass.  Exits with 1 if any differs.
+//	java -Xmx48m -cp . Bench tail
+//		Compiles and runs nm_tail.nm, with and without the peephole pass,
+//		and checks that it prints 1000000 and false.  Run with a small heap,
+//		a call made without (CallR ..) runs out of it.  Exits with 1 if not.
+//	java -cp . Bench deep
+//		Compiles and runs the sum100k, chain100k and elseif10k presets of
+//		Generator at the default thread stack size, and checks that they
+//		print 49950000, true and 0.  Exits with 1 if any fails to build,
+//		overflows the stack or prints anything else.
+// NOTE: This is a self-contained harness in the manner of JMH (warm-up, then
+//	measured iterations, alloc/op from the JVM's own counters) since this
+//	tree has no build tool to pull JMH in with.
+public class Bench {
+
+	private static final int		WARMUP = 5;
+	private static final int		MIN_ITERATIONS = 5;
+	private static final long		MIN_NANOS = 1000000000L;
+
+	public static void main(String[] args)
+			throws Exception
+	{
+		String mode = (args.length > 0 ? args[0] : "all");
+
+		if (mode.equals("scaling")) {
+			Scaling(args.length > 1 ? Integer.parseInt(args[1]) : 5000,
+					args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors());
+			return;
+		}
+		if (mode.equals("incremental")) {
+			Incremental(args.length > 1 ? Integer.parseInt(args[1]) : 5000);
+			return;
+		}
+		if (mode.equals("curve")) {
+			Curve(args.length > 1 ? args[1] : "functions",
+					args.length > 2 ? Integer.parseInt(args[2]) : 50000);
+			return;
+		}
+		if (mode.equals("lexstress")) {
+			int threads = Math.max(8, 4 * Runtime.getRuntime().availableProcessors());
+			int first = 1;
+			if (args.length > 1 && !args[1].endsWith(".nm")) {
+				threads = Integer.parseInt(args[1]);
+				first = 2;
+			}
+			ArrayList<File> files = new ArrayList<>();
+			for (int i = first; i < args.length; ++i) {
+				files.add(new File(args[i]));
+			}
+			System.exit(LexStress(files, 400, threads) ? 0 : 1);
+		}
+		if (mode.equals("tail")) {
+			boolean ok = Expect("nm_tail.nm", true, "1000000", "false");
+			ok = Expect("nm_tail.nm", false, "1000000", "false") && ok;
+			System.exit(ok ? 0 : 1);
+		}
+		if (mode.equals("deep")) {
+			boolean ok = Deep("sum100k", "49950000");
+			ok = Deep("chain100k", "true") && ok;
+			ok = Deep("elseif10k", "0") && ok;
+			System.exit(ok ? 0 : 1);
+		}
+		if (!(mode.equals("lexer") || mode.equals("parser") || mode.equals("codegen")
+				|| mode.equals("build") || mode.equals("all") || mode.equals("ir"))) {
+			System.out.println("Bench requires a mode; [lexer|parser|codegen|build|all|ir] [files ..]");
+			System.out.println("   or: scaling [functions] [cores]");
+			System.out.println("   or: incremental [functions]");
+			System.out.println("   or: curve [functions|sum|chain|elseif|loops] [max]");
+			System.out.println("   or: lexstress [threads] [files ..]");
+			System.out.println("   or: tail");
+			System.out.println("   or: deep");
+			return;
+		}
+
+		ArrayList<File> sources = new ArrayList<>();
+		ArrayList<File> scratch = new ArrayList<>();
+		for (int i = 1; i < args.length; ++i) {
+			sources.add(new File(args[i]));
+		}
+		if (sources.isEmpty()) {
+			sources.add(new File("nm_branch.nm"));
+			sources.add(new File("nm_loop.nm"));
+			sources.add(new File("nm_recursion.nm"));
+			scratch.add(Program(1000));
+			scratch.add(Program(10000));
+			sources.addAll(scratch);
+		}
+
+		if (mode.equals("ir")) {
+			System.out.println(String.format("%-28s %10s %12s %12s %14s",
+					"source", "tokens", "IR bytes", "bytes/token", "codegen ms/op"));
+			for (File src : sources) {
+				Ir(src);
+			}
+			return;
+		}
+
+		System.out.println(String.format("%-8s %-28s %8s %12s %10s %12s",
+				"phase", "source", "lines", "ms/op", "ns/line", "bytes/line"));
+		for (File src : sources) {
+			if (mode.equals("lexer") || mode.equals("all")) {
+				Lexer(src);
+			}
+			if (mode.equals("parser") || mode.equals("all")) {
+				Parser(src);
+			}
+			if (mode.equals("codegen") || mode.equals("all")) {
+				Codegen(src);
+			}
+			if (mode.equals("build") || mode.equals("all")) {
+				Build(src);
+			}
+		}
+
+		for (File f : scratch) {
+			f.delete();
+		}
+	}
+
+	// ---- Phase benchmarks ----
+
+	// Lexer(..) scans the whole source with NanoLexer.advance(), from memory.
+	private static void Lexer(File src)
+			throws Exception
+	{
+		String		text = new String(Files.readAllBytes(src.toPath()));
+		NanoLexer	lexer = new NanoLexer(new StringReader(""));
+		lexer.init(2);
+
+		Measure("lexer", src, () -> text, state -> {
+			lexer.reset(new StringReader((String) state));
+			while (lexer.peekToken(0) != NanoLexer.EOF) {
+				lexer.advance();
+			}
+		});
+	}
+
+	// Parser(..) runs the recursive descent parse, Compiler.p_program().
+	private static void Parser(File src)
+			throws Exception
+	{
+		Measure("parser", src, () -> Open(src), state -> {
+			((Compiler) state).p_program();
+			((Compiler) state).Close();
+		});
+	}
+
+	// Codegen(..) generates MASM from a parsed tree, TcProgram.MasmCode(..),
+	//	on the calling thread.  The tree is parsed once, and reused.
+	private static void Codegen(File src)
+			throws Exception
+	{
+		Compiler c = Open(src);
+		TcProgram tree = c.p_program();
+		c.Close();
+		tree.Parallel(null);
+
+		Measure("codegen", src, () -> tree,
+				state -> ((TcProgram) state).MasmCode(new MasmWriter(new StringBuilder()), false));
+	}
+
+	// Build(..) runs a full Compiler.Build(), from source file to .masm file.
+	private static void Build(File src)
+			throws Exception
+	{
+		Measure("build", src, () -> Open(src), state -> ((Compiler) state).Build());
+	}
+
+	// Ir(..) measures the heap retained by the parsed program, as the growth
+	//	of the live heap across parsing, and times code generation from it.
+	private static void Ir(File src)
+			throws Exception
+	{
+		String		text = new String(Files.readAllBytes(src.toPath()));
+		NanoLexer	lexer = new NanoLexer(new StringReader(text));
+		long		tokens = 0;
+
+		lexer.init(2);
+		while (lexer.peekToken(0) != NanoLexer.EOF) {
+			lexer.advance();
+			++tokens;
+		}
+
+		Compiler c = Open(src);
+		long before = Live();
+		TcProgram tree = c.p_program();
+		long after = Live();
+		c.Close();
+		tree.Parallel(null);
+
+		long best = Long.MAX_VALUE;
+		for (int i = 0; i < WARMUP + MIN_ITERATIONS; ++i) {
+			long t0 = System.nanoTime();
+			tree.MasmCode(new MasmWriter(new StringBuilder()), false);
+			best = Math.min(best, System.nanoTime() - t0);
+		}
+
+		System.out.println(String.format("%-28s %10d %12d %12.1f %14.3f",
+				src.getName(), tokens, after - before, (double) (after - before) / tokens, best / 1e6));
+	}
+
+	// Live(..) returns the bytes of heap in use after a full collection.
+	private static long Live() {
+		Runtime rt = Runtime.getRuntime();
+		for (int i = 0; i < 3; ++i) {
+			System.gc();
+		}
+		return rt.totalMemory() - rt.freeMemory();
+	}
+
+	// ---- Harness ----
+
+	private interface Setup {
+		Object Prepare() throws Exception;
+	}
+
+	private interface Body {
+		void Run(Object state) throws Exception;
+	}
+
+	// Measure(..) runs 'body' WARMUP times, then at least MIN_ITERATIONS times
+	//	and for at least MIN_NANOS, each on a freshly prepared state.  Only the
+	//	body is timed and has its allocations counted.
+	private static void Measure(String phase, File src, Setup setup, Body body)
+			throws Exception
+	{
+		for (int i = 0; i < WARMUP; ++i) {
+			body.Run(setup.Prepare());
+		}
+
+		long nanos = 0;
+		long bytes = 0;
+		int iterations = 0;
+		while (iterations < MIN_ITERATIONS || nanos < MIN_NANOS) {
+			Object state = setup.Prepare();
+			long a0 = Allocated();
+			long t0 = System.nanoTime();
+			body.Run(state);
+			nanos += System.nanoTime() - t0;
+			bytes += Allocated() - a0;
+			++iterations;
+		}
+
+		int lines = Lines(src);
+		double perOp = (double) nanos / iterations;
+		System.out.println(String.format("%-8s %-28s %8d %12.3f %10.1f %12.1f",
+				phase, src.getName(), lines, perOp / 1e6, perOp / lines,
+				(double) bytes / iterations / lines));
+	}
+
+	// Allocated(..) returns the bytes allocated so far by all live threads.
+	private static long Allocated() {
+		com.sun.management.ThreadMXBean mx =
+				(com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		long total = 0;
+		for (long b : mx.getThreadAllocatedBytes(mx.getAllThreadIds())) {
+			if (b > 0) {
+				total += b;
+			}
+		}
+		return total;
+	}
+
+	private static int Lines(File src)
+			throws IOException
+	{
+		int lines = 1;
+		for (byte b : Files.readAllBytes(src.toPath())) {
+			if (b == '\n') {
+				++lines;
+			}
+		}
+		return lines;
+	}
+
+	// Open(..) builds a Compiler for a source file, writing its output (if
+	//	any) to a scratch .masm and discarding its diagnostics.
+	static Compiler Open(File src)
+			throws IOException
+	{
+		PrintStream quiet = new PrintStream(OutputStream.nullOutputStream());
+		File out = new File(System.getProperty("java.io.tmpdir"), "bench.masm");
+		return new Compiler(src.getPath(), out.getPath(), quiet);
+	}
+
+	// ---- Codegen scaling ----
+
+	// Scaling(..) generates code for one program of 'functions' functions
+	//	with 1, 2, .. N worker threads, and checks that the output is the
+	//	same every time.
+	private static void Scaling(int functions, int cores)
+			throws Exception
+	{
+		File src = Program(functions);
+		Compiler c = Open(src);
+		TcProgram tree = c.p_program();
+		c.Close();
+		String expected = null;
+		double base = 0;
+
+		System.out.println("Codegen scaling, " + functions + " functions:");
+		for (int n = 1; n <= cores; ++n) {
+			ForkJoinPool pool = new ForkJoinPool(n);
+			long best = Long.MAX_VALUE;
+			String output = null;
+
+			// Code generation leaves the tree as it was, so one tree serves
+			//	every run.
+			tree.Parallel(n == 1 ? null : pool);
+			for (int rep = 0; rep < 10; ++rep) {
+				StringBuilder sb = new StringBuilder();
+				long t0 = System.nanoTime();
+				tree.MasmCode(new MasmWriter(sb), false);
+				best = Math.min(best, System.nanoTime() - t0);
+				output = sb.toString();
+			}
+			pool.shutdown();
+
+			if (expected == null) {
+				expected = output;
+				base = best;
+			} else if (!expected.equals(output)) {
+				System.out.println("ERROR: output with " + n + " cores differs from 1 core.");
+			}
+			System.out.println(String.format("  %3d cores: %8.2f ms  (x%.2f)", n, best / 1e6, base / best));
+		}
+		src.delete();
+	}
+
+	// ---- Incremental builds ----
+
+	// Incremental(..) times a full build of a program against a rebuild of
+	//	it with one function edited, the cache holding every function of the
+	//	original, and checks that both builds write the same MASM.
+	private static void Incremental(int functions)
+			throws Exception
+	{
+		File src = Program(functions);
+		String text = new String(Files.readAllBytes(src.toPath()));
+
+		// Edit the first operator of a function in the middle of the file.
+		int at = text.indexOf("\nf" + Integer.toString(functions / 2) + "(");
+		int op = text.indexOf(" + ", Math.max(at, 0));
+		String edited = text.substring(0, op) + " - " + text.substring(op + 3);
+		File changed = new File(System.getProperty("java.io.tmpdir"), "incremental.nm");
+		Files.write(changed.toPath(), edited.getBytes());
+
+		long cold = Long.MAX_VALUE;
+		long warm = Long.MAX_VALUE;
+		String full = null;
+		String incremental = null;
+		for (int rep = 0; rep < WARMUP + MIN_ITERATIONS; ++rep) {
+			Compiler c = Open(changed);
+			long t0 = System.nanoTime();
+			c.Build();
+			cold = Math.min(cold, System.nanoTime() - t0);
+			full = Output();
+
+			FunctionCache cache = new FunctionCache();
+			c = Open(src);
+			c.Cache(cache);
+			c.Build();
+
+			c = Open(changed);
+			c.Cache(cache);
+			t0 = System.nanoTime();
+			c.Build();
+			warm = Math.min(warm, System.nanoTime() - t0);
+			incremental = Output();
+		}
+
+		System.out.println(String.format("Incremental build, %d functions, 1 edited:", functions));
+		System.out.println(String.format("  full build:         %10.3f ms", cold / 1e6));
+		System.out.println(String.format("  incremental build:  %10.3f ms  (x%.2f)", warm / 1e6, (double) cold / warm));
+		if (!full.equals(incremental)) {
+			System.out.println("ERROR: incremental build differs from full build.");
+		}
+		src.delete();
+		changed.delete();
+	}
+
+	private static String Output()
+			throws IOException
+	{
+		File out = new File(System.getProperty("java.io.tmpdir"), "bench.masm");
+		return new String(Files.readAllBytes(out.toPath()));
+	}
+
+	// ---- Concurrent lexing ----
+
+	// LexStress(..) lexes a corpus of 'count' sources -- the given files (or
+	//	the shipped samples), made up to 'count' with generated programs of
+	//	assorted shapes, some with \r\n line endings -- once on this thread,
+	//	each with a lexer of its own.  Then 'threads' threads lex the whole
+	//	corpus at once, each in an order of its own, handing one lexer source
+	//	after source with reset(..).  Every token (kind, lexeme, offset, length,
+	//	line and column) must be as on the sequential pass.
+	private static boolean LexStress(ArrayList<File> given, int count, int threads)
+			throws Exception
+	{
+		if (given.isEmpty()) {
+			given.add(new File("nm_branch.nm"));
+			given.add(new File("nm_loop.nm"));
+			given.add(new File("nm_recursion.nm"));
+			given.add(new File("nm_tail.nm"));
+		}
+		ArrayList<String> names = new ArrayList<>();
+		ArrayList<String> texts = new ArrayList<>();
+		for (File f : given) {
+			names.add(f.getName());
+			texts.add(new String(Files.readAllBytes(f.toPath())));
+		}
+		for (int i = 0; texts.size() < count; ++i) {
+			Generator g = new Generator();
+			g.seed = i;
+			g.functions = 1 + i % 16;
+			g.elseif = i % 5;
+			g.loops = i % 3;
+			g.depth = 1 + i % 6;
+			StringBuilder sb = new StringBuilder();
+			g.Write(sb);
+			names.add("generated" + Integer.toString(i) + (i % 3 == 0 ? " (crlf)" : ""));
+			texts.add(i % 3 == 0 ? sb.toString().replace("\n", "\r\n") : sb.toString());
+		}
+
+		String[] expected = new String[texts.size()];
+		for (int i = 0; i < expected.length; ++i) {
+			NanoLexer lexer = new NanoLexer(new StringReader(""));
+			lexer.init(2);
+			expected[i] = Tokens(lexer, texts.get(i));
+		}
+
+		AtomicInteger	failures = new AtomicInteger();
+		String[]		failed = new String[1];
+		CountDownLatch	start = new CountDownLatch(1);
+		ExecutorService	pool = Executors.newFixedThreadPool(threads, r -> {
+			Thread t = new Thread(r);
+			t.setDaemon(true);
+			return t;
+		});
+		for (int t = 0; t < threads; ++t) {
+			final long seed = t;
+			pool.submit(() -> {
+				ArrayList<Integer> order = new ArrayList<>();
+				for (int i = 0; i < expected.length; ++i) {
+					order.add(i);
+				}
+				Collections.shuffle(order, new Random(seed));
+				NanoLexer lexer = new NanoLexer(new StringReader(""));
+				lexer.init(2);
+				start.await();
+				for (int i : order) {
+					String tokens;
+					try {
+						tokens = Tokens(lexer, texts.get(i));
+					} catch (Exception | StackOverflowError e) {
+						tokens = e.toString();
+					}
+					if (!tokens.equals(expected[i]) && failures.getAndIncrement() == 0) {
+						failed[0] = names.get(i);
+					}
+				}
+				return null;
+			});
+		}
+		long t0 = System.nanoTime();
+		start.countDown();
+		pool.shutdown();
+		if (!pool.awaitTermination(10, TimeUnit.MINUTES)) {
+			System.out.println("ERROR: the lexers did not finish within 10 minutes.");
+			return false;
+		}
+		long nanos = System.nanoTime() - t0;
+
+		System.out.println(String.format("Lexer stress, %d sources on %d threads, %d lexes in %.1f ms:",
+				expected.length, threads, expected.length * threads, nanos / 1e6));
+		if (failures.get() > 0) {
+			System.out.println(String.format("ERROR: %d lexes differ from the sequential pass, the first of %s.",
+					failures.get(), failed[0]));
+			return false;
+		}
+		System.out.println("  every token matches the sequential pass.");
+		return true;
+	}
+
+	// Tokens(..) lexes 'text' with 'lexer', listing every token it reads.
+	//	Every token but EOF takes up at least one character, so a lexer that
+	//	reads more tokens than that has gone astray.
+	private static String Tokens(NanoLexer lexer, String text)
+			throws IOException
+	{
+		StringBuilder sb = new StringBuilder();
+		lexer.reset(new StringReader(text));
+		for (int n = 0; n <= text.length(); ++n) {
+			int token = lexer.peekToken(0);
+			sb.append(token).append(' ').append(lexer.peekLexeme(0))
+					.append(' ').append(lexer.peekOffset(0)).append(' ').append(lexer.peekLength(0))
+					.append(' ').append(lexer.line()).append(':').append(lexer.column()).append('\n');
+			if (token == NanoLexer.EOF) {
+				return sb.toString();
+			}
+			lexer.advance();
+		}
+		return sb.append("no EOF\n").toString();
+	}
+
+	// ---- Program output ----
+
+	// Expect(..) compiles and runs 'source' in this JVM (see Driver), and
+	//	checks that the program prints exactly the 'expected' lines.  What
+	//	the compiler itself prints comes before them and is ignored.
+	private static boolean Expect(String source, boolean peephole, String... expected) {
+		ByteArrayOutputStream	buffer = new ByteArrayOutputStream();
+		PrintStream				stdout = System.out;
+		String					label = source + (peephole ? "" : " --no-peephole");
+		int						status = 1;
+		Throwable				error = null;
+		try {
+			System.setOut(new PrintStream(buffer, true));
+			status = Driver.Run(peephole ? new String[]{"--run", source}
+					: new String[]{"--run", "--no-peephole", source}, 0);
+		} catch (RuntimeException | StackOverflowError | OutOfMemoryError e) {
+			error = e;
+		} finally {
+			System.setOut(stdout);
+		}
+		if (error != null) {
+			System.out.println("ERROR: " + label + " failed with " + error);
+			return false;
+		}
+
+		String[] lines = buffer.toString().split("\\R");
+		boolean ok = (status == 0 && lines.length >= expected.length);
+		for (int i = 0; ok && i < expected.length; ++i) {
+			ok = lines[lines.length - expected.length + i].equals(expected[i]);
+		}
+		if (!ok) {
+			System.out.println("ERROR: " + label + " exited with " + status + ", printing:");
+			System.out.print(buffer.toString());
+			System.out.println("  where it should end with " + String.join(", ", expected) + ".");
+			return false;
+		}
+		System.out.println(label + ": " + String.join(", ", expected) + ", as expected.");
+		return true;
+	}
+
+	// Deep(..) writes out one stress preset of Generator and checks its
+	//	output as above.
+	private static boolean Deep(String preset, String expected)
+			throws IOException
+	{
+		Generator g = new Generator();
+		g.Preset(preset);
+		File src = Program(g, preset);
+		try {
+			return Expect(src.getPath(), true, expected);
+		} finally {
+			src.delete();
+		}
+	}
+
+	// ---- Input size curves ----
+
+	// Curve(..) compiles generated programs of one shape at doubling sizes
+	//	up to 'max', reporting build time and allocation against size.  With
+	//	linear behaviour ns/unit stays flat and each step takes about x2.
+	private static void Curve(String shape, int max)
+			throws Exception
+	{
+		System.out.println(String.format("Build curve, %s up to %d:", shape, max));
+		System.out.println(String.format("%10s %10s %12s %10s %12s %8s",
+				"size", "lines", "ms/op", "ns/unit", "bytes/unit", "step"));
+
+		double last = 0;
+		for (int size = Math.max(max / 64, 1); size <= max; size *= 2) {
+			Generator g = new Generator();
+			switch (shape) {
+				case "functions":	g.functions = size; break;
+				case "sum":			g.functions = 0; g.sum = size; break;
+				case "chain":		g.functions = 0; g.chain = size; break;
+				case "elseif":		g.functions = 1; g.elseif = size; break;
+				case "loops":		g.functions = 1; g.loops = size; break;
+				default:
+					System.out.println("Unknown shape " + shape + "; functions, sum, chain, elseif or loops");
+					return;
+			}
+			File src = Program(g, shape + Integer.toString(size));
+
+			long best = Long.MAX_VALUE;
+			long bytes = 0;
+			try {
+				for (int rep = 0; rep < 3; ++rep) {
+					Compiler c = Open(src);
+					long a0 = Allocated();
+					long t0 = System.nanoTime();
+					if (!c.Build()) {
+						throw new Exception("build failed");
+					}
+					best = Math.min(best, System.nanoTime() - t0);
+					bytes = Allocated() - a0;
+				}
+			} catch (Throwable e) {
+				System.out.println(String.format("%10d  %s", size, e.getClass().getSimpleName() + ": " + e.getMessage()));
+				src.delete();
+				return;
+			}
+
+			int lines = Lines(src);
+			System.out.println(String.format("%10d %10d %12.3f %10.1f %12.1f %8s",
+					size, lines, best / 1e6, (double) best / size, (double) bytes / size,
+					(last > 0 ? String.format("x%.2f", best / last) : "")));
+			last = best;
+			src.delete();
+		}
+	}
+
+	// Program(..) writes a throw-away program of 'functions' functions of
+	//	the default Generator shape.
+	private static File Program(int functions)
+			throws IOException
+	{
+		Generator g = new Generator();
+		g.functions = functions;
+		return Program(g, "bench" + Integer.toString(functions));
+	}
+
+	private static File Program(Generator g, String name)
+			throws IOException
+	{
+		File f = new File(System.getProperty("java.io.tmpdir"), name + ".nm");
+		try (Writer w = new BufferedWriter(new FileWriter(f))) {
+			g.Write(w);
+		}
+		return f;
+	}
+}
@@ -82,20 +82,86 @@
 	<call_expr>		::=		<NAME> '(' [ <and_expr> { ',' <and_expr> } ] ')'
  */
 
-import java.io.FileReader;
+import java.io.BufferedWriter;
 import java.io.FileWriter;
 import java.io.IOException;
-import java.util.Stack;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.List;
 
 
 public class Compiler {
 	private final NanoLexer lexer;
-	private final Stack<String> parseScope;
+	private final PrintStream log;
+	private final Source source;
 	private TcProgram tree;
 
+	// Lists of functions and names being parsed are collected on the top of
+	//	these stacks, and copied off once complete, so that nested lists
+	//	share one array (see PushCode(..)).  Lists of expressions and
+	//	arguments are linked in the Arena of their function.
+	private TreeCode[] codeStack;
+	private int codeTop;
+	private int[] nameStack;
+	private int nameTop;
+
+	// The names and literals of the program, numbered (see Arena); the lexer
+	//	interns each lexeme as it reads it, so the parser deals in numbers.
+	//	The operators and literals that the parser writes itself are
+	//	numbered once, up front.
+	private final NamePool names;
+	private final int nameAdd;
+	private final int nameSub;
+	private final int nameOne;
+	private final int nameTrue;
+
+	// The expression stack (see p_expression(..)): each element's syntax
+	//	element, its state, and what it remembers between the elements it
+	//	parses -- a left operand (or the last argument of a call), an
+	//	operator or a function name, and the first argument of a call.
+	private int[] exprKinds;
+	private int[] exprStates;
+	private int[] exprLefts;
+	private int[] exprOps;
+	private int[] exprBases;
+	private int exprTop;
+
 	private String file_nm;
 	private String file_masm;
 	private String target;
+	private boolean optimize;
+	private boolean listDropped;
+
+	// Incremental compilation (see FunctionCache): the tokens of the function
+	//	being looked up are recorded on a tape, and replayed to the parser if
+	//	the function has to be compiled after all.
+	private FunctionCache cache;
+	private MessageDigest digest;
+	private byte[] digestChars;
+	private int[] tapeTokens;
+	private int[] tapeNames;
+	private int[] tapeOffsets;
+	private int tapeAt;
+	private int tapeLength;
+	private int cacheHits;
+	private int cacheMisses;
+	private long cacheSaved;
+
+	// Whole compilations are looked up in the DiskCache before the source is
+	//	lexed at all; 'sourceLines' counts the lines of a source found there.
+	private DiskCache disk;
+	private int sourceLines;
+	private boolean lexing;
+
+	// The compilation is measured (see Metrics) if asked to be, with
+	//	Measure(..), or while a flight recording takes its events.
+	private Metrics metrics;
 
 	// ---- Compiler operational methods ----
 
@@ -104,72 +170,333 @@ public class Compiler {
 	public Compiler(String fin, String fout)
 			throws IOException, IllegalArgumentException
 	{
-		if (!fin.split("\\.")[1].equals("nm")) {
-			throw new IllegalArgumentException("Input file must match *.nm");
-		} else if (!fout.split("\\.")[1].equals("masm")) {
+		this(fin, fout, System.out);
+	}
+
+	// All diagnostics of this compilation are written to 'diagnostics', so
+	//	that compilations running side by side (see Batch) do not interleave
+	//	their messages.
+	public Compiler(String fin, String fout, PrintStream diagnostics)
+			throws IOException, IllegalArgumentException
+	{
+		this(fin, fout, diagnostics, fout.substring(0, Math.max(fout.length() - ".masm".length(), 0)));
+	}
+
+	// The .mexe produced from the output is named 'target'.mexe, which need
+	//	not lie beside the .masm file (see Driver).
+	public Compiler(String fin, String fout, PrintStream diagnostics, String mexeTarget)
+			throws IOException, IllegalArgumentException
+	{
+		this(Input(fin, fout), fout, diagnostics, mexeTarget);
+	}
+
+	// The source need not be a file (see Source); it is closed along with
+	//	the compiler.
+	public Compiler(Source in, String fout, PrintStream diagnostics, String mexeTarget)
+			throws IOException, IllegalArgumentException
+	{
+		if (!fout.endsWith(".masm")) {
+			in.close();
 			throw new IllegalArgumentException("Output file must match *.masm");
 		}
 
-		file_nm = fin;
+		file_nm = in.Name();
 		file_masm = fout;
-		target = file_masm.split("\\.")[0];
+		target = mexeTarget;
+		optimize = true;
+		listDropped = false;
+		cache = null;
+		disk = null;
+		sourceLines = -1;
+		lexing = false;
+		metrics = null;
+
+		log = diagnostics;
+		codeStack = new TreeCode[64];
+		codeTop = 0;
+		nameStack = new int[16];
+		nameTop = 0;
+		names = new NamePool();
+		nameAdd = names.Intern("+");
+		nameSub = names.Intern("-");
+		nameOne = names.Intern("1");
+		nameTrue = names.Intern("true");
+		exprKinds = new int[64];
+		exprStates = new int[64];
+		exprLefts = new int[64];
+		exprOps = new int[64];
+		exprBases = new int[64];
+		exprTop = 0;
+		source = in;
+		lexer = new NanoLexer(source);
+	}
 
-		parseScope = new Stack<>();
-		lexer = new NanoLexer(new FileReader(file_nm));
-		lexer.init(2);
+	// Input(..) method opens the source file 'fin', once both it and the
+	//	output file 'fout' are known to be named as they should.
+	private static Source Input(String fin, String fout)
+			throws IOException, IllegalArgumentException
+	{
+		if (!fin.endsWith(".nm")) {
+			throw new IllegalArgumentException("Input file must match *.nm");
+		} else if (!fout.endsWith(".masm")) {
+			throw new IllegalArgumentException("Output file must match *.masm");
+		}
+		return Source.File(Paths.get(fin));
 	}
 
 	// Build(..) method parses and compiles the input target into the
-	//	output target.
-	public void Build() {
-		FileWriter fw = null;
+	//	output target.  Returns true if the .masm file was written.
+	// The .masm file is written under a temporary name and moved into place
+	//	once complete, so it is never seen half written, and so that an
+	//	output linked to the DiskCache is replaced rather than written into.
+	public boolean Build() {
+		return Build(null);
+	}
+
+	// Given 'memory', the MASM is appended to it instead, and no .masm file
+	//	is written at all (see Driver).
+	public boolean Build(StringBuilder memory) {
+		Writer	fw = null;
+		Path	masm = Paths.get(file_masm);
+		Path	tmp = null;
+		boolean	ok = false;
+		boolean	reused = false;
+
+		if (metrics == null && Metrics.Recording()) {
+			metrics = new Metrics(file_nm);
+		}
 
 		try {
+			// A compilation of the same source, by the same compiler with the
+			//	same options, is reused as it is.
+			String key = null;
+			if (disk != null) {
+				byte[] bytes = source.Content();
+				key = DiskCache.Key(bytes, (optimize ? "peephole" : "") + "\0" + target);
+				String cached = (memory != null ? disk.Fetch(key) : null);
+				if (cached != null) {
+					memory.append(cached);
+				}
+				if (cached != null || (memory == null && disk.Fetch(key, masm))) {
+					sourceLines = Lines(bytes);
+					reused = true;
+					log.println("Cached " + file_nm + ", reusing its output..");
+					log.println("Compiled " + (memory != null ? file_nm : file_masm));
+					return (ok = true);
+				}
+			}
+
 			// Parse the input, generating intermediate code as we go.
+			Begin(Metrics.PARSE);
 			tree = p_program();
-			System.out.println("Parsed " + file_nm + ", generating code..");
+			End(Metrics.PARSE);
+			log.println("Parsed " + file_nm + ", generating code..");
+			if (cache != null) {
+				log.println(String.format("Cache: %d of %d functions reused (%.1f%%), %.3f ms of parsing and code generation saved",
+						cacheHits, cacheHits + cacheMisses,
+						100.0 * cacheHits / Math.max(cacheHits + cacheMisses, 1), cacheSaved / 1e6));
+			}
 
-			// Generate final code, and write the .masm file.
-			fw = new FileWriter(file_masm);
-			String[] lines = tree.MasmCode(false);
-			for (String s : lines) {
-				fw.write(s + "\n");
+			// Compute what can be computed at compile time.
+			Begin(Metrics.FOLD);
+			tree.Fold();
+			End(Metrics.FOLD);
+
+			// Drop the functions that are never called.
+			tree.Measure(metrics);
+			List<String> dropped = tree.Reach();
+			if (!dropped.isEmpty()) {
+				log.println("Dropped " + dropped.size() + " functions unreachable from main");
+				if (listDropped) {
+					for (String f : dropped) {
+						log.println("  " + f);
+					}
+				}
+			}
+
+			// Generate final code, streaming it straight into the .masm file.
+			Begin(Metrics.CODEGEN);
+			Peephole peephole = (optimize ? new Peephole() : null);
+			if (memory != null) {
+				tree.MasmCode(new MasmWriter(memory, peephole), false);
+			} else {
+				tmp = DiskCache.Scratch(masm);
+				Writer sink = new FileWriter(tmp.toFile());
+				fw = new BufferedWriter(metrics != null ? metrics.Timed(sink) : sink);
+				tree.MasmCode(new MasmWriter(fw, peephole), false);
+				fw.close();
+				long t0 = System.nanoTime();
+				long b0 = (metrics != null ? Metrics.Allocated() : 0);
+				DiskCache.Replace(tmp, masm);
+				if (metrics != null) {
+					metrics.Written(t0, b0);
+				}
+			}
+			End(Metrics.CODEGEN);
+			if (peephole != null) {
+				log.println(peephole.Report());
+			}
+			if (disk != null) {
+				if (memory != null) {
+					disk.Store(key, memory);
+				} else {
+					disk.Store(key, masm);
+				}
 			}
-			fw.close();
 
 			// Success!
-			System.out.println("Compiled " + file_masm);
+			log.println("Compiled " + (memory != null ? file_nm : file_masm));
+			ok = true;
 
 		} catch (ParseError e) {
-			System.out.println(e.getMessage());
-			ParseTrace();
+			log.println(e.getMessage());
+			ParseTrace(e);
 		} catch (SymbolError e) {
-			System.out.println(e.getMessage());
+			log.println(e.getMessage());
 		} catch (FatalError e) {
-			System.out.println(e.getMessage());
+			log.println(e.getMessage());
 		} catch (Exception e) {
 			// Default handler.
-			System.out.println(e.getMessage());
+			log.println(e.getMessage());
 		} finally {
 			try {
 				if (fw != null) {
 					fw.close();
 				}
+				if (tmp != null) {
+					Files.deleteIfExists(tmp);
+				}
+				Close();
 			} catch (IOException e) {
-				System.out.println(e.getMessage());
+				log.println(e.getMessage());
+			}
+			if (metrics != null) {
+				metrics.Finish(ok, reused, SourceLines());
 			}
 		}
+
+		return ok;
+	}
+
+	// Begin(..) and End(..) methods bracket a phase of the compilation, if
+	//	it is measured.
+	private void Begin(int phase) {
+		if (metrics != null) {
+			metrics.Begin(phase);
+		}
+	}
+
+	private void End(int phase) {
+		if (metrics != null) {
+			metrics.End(phase);
+		}
+	}
+
+	// Optimize(..) method turns the peephole optimization of the MASM on or
+	//	off; it is on by default.
+	public void Optimize(boolean on) {
+		optimize = on;
+	}
+
+	// ListDropped(..) method has the functions dropped as unreachable (see
+	//	TcProgram.Reach(..)) listed by name, not just counted.
+	public void ListDropped(boolean on) {
+		listDropped = on;
+	}
+
+	// Cache(..) method makes the compilation incremental: functions found in
+	//	'store' are reused, and those compiled are added to it.
+	public void Cache(FunctionCache store) {
+		cache = store;
+	}
+
+	// Cache(..) method makes whole compilations reusable: if 'store' holds
+	//	the output of this one, it is used without parsing the source, and
+	//	otherwise the output is added to it.
+	public void Cache(DiskCache store) {
+		disk = store;
+	}
+
+	// Measure(..) method has the compilation measured, and returns the
+	//	Metrics that Build(..) fills in.
+	public Metrics Measure() {
+		metrics = new Metrics(file_nm);
+		return metrics;
+	}
+
+	// Close(..) method releases the source.  Build(..) closes it when
+	//	done; callers driving the parser themselves should close it too.
+	public void Close()
+			throws IOException
+	{
+		source.close();
+	}
+
+	// SourceLines(..) method returns the number of source lines the lexer
+	//	has scanned so far; after Build(..) this is the length of the input.
+	public int SourceLines() {
+		return (sourceLines >= 0 ? sourceLines : lexing ? lexer.line() : 0);
+	}
+
+	// Lines(..) counts the lines of a source as the lexer does, which ends
+	//	on the line after the last line break.
+	private static int Lines(byte[] bytes) {
+		int n = 1;
+		for (byte b : bytes) {
+			if (b == '\n') {
+				++n;
+			}
+		}
+		return n;
 	}
 
 	public static void main(String[] args) {
-		if (args.length < 2) {
-			System.out.println("Compiler requires 2 arguments; [input file] [output file]");
+		if (args.length > 0 && args[0].equals("--batch")) {
+			System.exit(Batch.Run(args, 1));
+		} else if (args.length > 0 && (args[0].equals("--run") || args[0].equals("--emit-mexe"))) {
+			System.exit(Driver.Run(args, 0));
+		} else if (args.length > 0 && args[0].equals("--daemon")) {
+			System.exit(Daemon.Run(args, 1));
+		}
+
+		boolean	optimize = true;
+		boolean	stats = false;
+		boolean	dropped = false;
+		String	cacheDir = null;
+		int		first = 0;
+		for (; first < args.length && args[first].startsWith("--"); ++first) {
+			if (args[first].equals("--no-peephole")) {
+				optimize = false;
+			} else if (args[first].equals("--cache") && first + 1 < args.length) {
+				cacheDir = args[++first];
+			} else if (args[first].equals("--stats")) {
+				stats = true;
+			} else if (args[first].equals("--dropped")) {
+				dropped = true;
+			} else {
+				break;
+			}
+		}
+
+		if (args.length < first + 2) {
+			System.out.println("Compiler requires 2 arguments; [--no-peephole] [--cache dir] [--stats] [--dropped] [input file, or - for stdin] [output file]");
+			System.out.println("   or: Compiler --batch [--cache dir] [--stats] [file or directory] ..");
+			System.out.println("   or: Compiler --emit-mexe|--run [--keep-masm] [--no-peephole] [--cache dir] [input file] [args] ..");
+			System.out.println("   or: Compiler --daemon [--socket path] [--stdio] [--cache dir] [--no-warmup] [--stats]");
 			return;
 		}
 
 		Compiler c = null;
 		try {
-			c = new Compiler(args[0], args[1]);
+			String fout = args[first + 1];
+			c = (args[first].equals("-")
+					? new Compiler(Source.Stdin(), fout, System.out, fout.substring(0, Math.max(fout.length() - ".masm".length(), 0)))
+					: new Compiler(args[first], fout));
+			c.Optimize(optimize);
+			c.ListDropped(dropped);
+			if (cacheDir != null) {
+				c.Cache(DiskCache.Open(cacheDir));
+			}
 		} catch (IOException e) {
 			System.out.println("Failed to construct compiler.");
 			System.out.println(e.getMessage());
@@ -180,7 +507,11 @@ public class Compiler {
 			return;
 		}
 
+		Metrics m = (stats ? c.Measure() : null);
 		c.Build();
+		if (m != null) {
+			System.out.println(m.Json());
+		}
 	}
 
 	// ---- Parsing methods ----
@@ -193,52 +524,89 @@ public class Compiler {
 	public TcProgram p_program()
 			throws CompilerError
 	{
-		parseScope.push("<program>");
+		// The lexer reads ahead only once parsing starts, so a compilation
+		//	found in the DiskCache never lexes its source.
+		try {
+			lexer.init(2, names);
+			lexing = true;
+		} catch (IOException e) {
+			throw new FatalError("IOException in lexer.init(..): " + e.getMessage());
+		}
 
 		TcProgram 			out = null;
-		Stack<TcFunction> 	defs = new Stack<>();
+		int					defs = codeTop;
 
 		while (Token() != lexer.EOF) {
-			defs.push(p_function());
+			long	start = (metrics != null ? System.nanoTime() : 0);
+			int		tokens = lexer.tokens();
+
+			if (cache == null) {
+				TcFunction f = p_function();
+				PushCode(f);
+				if (metrics != null) {
+					metrics.Parsed(f.Name(), lexer.tokens() - tokens, f, System.nanoTime() - start);
+				}
+				continue;
+			}
+
+			// Only functions missing from the cache are parsed, from the tape.
+			String key = Record();
+			FunctionCache.Entry hit = cache.Get(key);
+			if (hit != null) {
+				tapeAt = tapeLength;
+				PushCode(new TcCached(hit.block));
+				++cacheHits;
+				cacheSaved += hit.nanos;
+				if (metrics != null) {
+					metrics.Parsed(tapeNames[0] >= 0 ? names.Name(tapeNames[0]) : "", lexer.tokens() - tokens, null, System.nanoTime() - start);
+				}
+			} else {
+				long t0 = System.nanoTime();
+				TcFunction f = p_function();
+				f.Cache(cache, key, System.nanoTime() - t0);
+				PushCode(f);
+				++cacheMisses;
+				if (metrics != null) {
+					metrics.Parsed(f.Name(), lexer.tokens() - tokens, f, System.nanoTime() - start);
+				}
+			}
 		}
-		out = new TcProgram(target, "main", defs.toArray(new TcFunction[0]));
+		out = new TcProgram(target, "main", PopCodes(defs));
 
-		parseScope.pop();
 		return out;
 	}
 
 	public TcFunction p_function()
 			throws CompilerError
 	{
-		parseScope.push("<function>");
-
 		// Each function has its own SymbolTable -- all symbols are local
 		//	to the function.
-		SymbolTable table = new SymbolTable();
+		SymbolTable table = new SymbolTable(names);
 
 		TcFunction 	out = null;
 		String		name = "";
-		String[]	args = null;
-		String[]	decls = null;
-		TreeCode[]	exprs = null;
+		int[]		args = null;
+		int[]		decls = null;
+		Arena		code = new Arena(names);
+		int			exprs = Arena.NONE;
 
 		if (Token() != lexer.NAME) { throw new ParseError(lexer.NAME, Token()); }
-		name = Text();
+		name = names.Name(Name());
 		Advance();
 
 		// Parse argument list.
 		if (Token() != lexer.OPEN_PAREN) { throw new ParseError(lexer.OPEN_PAREN, Token()); }
 		Advance();
 
-		Stack<String>	argStack = new Stack<>();
+		int				argBase = nameTop;
 		while(Token() == lexer.NAME) {
-			argStack.push(Text());
+			PushName(Name());
 			Advance();
 			if (Token() == lexer.COMMA) {
 				Advance();
 			}
 		}
-		args = argStack.toArray(new String[0]);
+		args = PopNames(argBase);
 		if (Token() != lexer.CLOSE_PAREN) { throw new ParseError(lexer.CLOSE_PAREN, Token()); }
 		Advance();
 
@@ -248,32 +616,37 @@ public class Compiler {
 
 
 		// Parse variable declaration list.
-		Stack<String>	declStack = new Stack<>();
+		int				declBase = nameTop;
 		while (Token() == lexer.VAR) {
 			Advance();
 			if (Token() != lexer.NAME) { throw new ParseError(lexer.NAME, Token()); }
-			declStack.push(Text());
+			PushName(Name());
 			Advance();
 			while (Token() == lexer.COMMA) {
 				Advance();
 				if (Token() != lexer.NAME) { throw new ParseError(lexer.NAME, Token()); }
-				declStack.push(Text());
+				PushName(Name());
 				Advance();
 			}
 			if (Token() != lexer.SEMICOLON) { throw new ParseError(lexer.SEMICOLON, Token()); }
 			Advance();
 		}
-		decls = declStack.toArray(new String[0]);
+		decls = PopNames(declBase);
 
 		// Parse expression list.
-		Stack<TreeCode> exprStack = new Stack<>();
+		int				last = Arena.NONE;
 		while (Token() != lexer.CLOSE_BLOCK) {
-			exprStack.push(p_expr(table));
+			int e = p_expr(code);
+			if (last == Arena.NONE) {
+				exprs = e;
+			} else {
+				code.Link(last, e);
+			}
+			last = e;
 			if (Token() != lexer.SEMICOLON) { throw new ParseError(lexer.SEMICOLON, Token()); }
 			Advance();
 		}
-		exprs = exprStack.toArray(new TreeCode[0]);
-		if (exprs.length == 0) {
+		if (exprs == Arena.NONE) {
 			throw new FatalError("No expressions in function " + name);
 		}
 
@@ -281,277 +654,328 @@ public class Compiler {
 		//	because this is the exit condition of the loop above. Thus we blindly
 		//	consume it and move on with our lives.
 		Advance();
-		out = new TcFunction(table, name, args, decls, exprs);
+		code.Trim();
+		out = new TcFunction(table, name, args, decls, code, exprs);
+
+		// Resolve the names of the function, now that all of it is known.
+		out.Resolve();
 
-		parseScope.pop();
 		return out;
 	}
 
-	public TreeCode p_expr(SymbolTable table)
+	public int p_expr(Arena code)
 			throws CompilerError
 	{
-		parseScope.push("<expr>");
-
-		TreeCode out = null;
+		int out = Arena.NONE;
 
 		// Try and determine what expansion of <expr> to apply by the process
 		//	of elimination.
 		if (Token() == lexer.RET) {
 			Advance();
-			out = new TcReturn(table, p_and_expr(table));
+			out = code.Return(p_expression(code));
 		} else if (Token() == lexer.LP_WHILE) {
-			out = p_loop_expr(table);
+			out = p_loop_expr(code);
 		} else if (Token() == lexer.BRN_IF) {
-			out = p_branch_expr(table);
+			out = p_branch_expr(code);
 		} else if (Peek() == lexer.OP_SET) {
 			if (Token() != lexer.NAME) { throw new ParseError(lexer.NAME, Token()); }
-			String name = Text();
+			out = code.Assign(Name());
 			Advance();
 			Advance();
-			out = new TcAssign(table, name, p_and_expr(table));
+			code.Assign(out, p_expression(code));
 		} else {
-			out = p_and_expr(table);
+			out = p_expression(code);
 		}
 
-		parseScope.pop();
 		return out;
 	}
 
-	public TcBranch p_branch_expr(SymbolTable table)
+	public int p_branch_expr(Arena code)
 			throws CompilerError
 	{
-		parseScope.push("<branch_expr>");
-
-		TcBranch 		out = null;
-		TreeCode 		condition = null;
-		TreeCode[] 		body = null;
-		TcBranch 		t0 = null;
-		TcBranch 		t1 = null;
+		int		 		out = Arena.NONE;
+		int		 		condition = Arena.NONE;
+		int		 		body = Arena.NONE;
+		int		 		t0 = Arena.NONE;
+		int		 		t1 = Arena.NONE;
 
 		if (Token() != lexer.BRN_IF) { throw new ParseError(lexer.BRN_IF, Token()); }
 		Advance();
 		if (Token() != lexer.OPEN_PAREN) { throw new ParseError(lexer.OPEN_PAREN, Token()); }
 		Advance();
-		condition = p_and_expr(table);
+		condition = p_expression(code);
 		if (Token() != lexer.CLOSE_PAREN) { throw new ParseError(lexer.CLOSE_PAREN, Token()); }
 		Advance();
-		body = p_block(table);
-		out = new TcBranch(table, condition, body);
-		t0 = out;
+		body = p_block(code);
+		t0 = code.Arm(condition, body);
+		out = t0;
 
 		// Generate and link any 'elseif' branches.
 		while (Token() == lexer.BRN_ELIF) {
 			Advance();
 			if (Token() != lexer.OPEN_PAREN) { throw new ParseError(lexer.OPEN_PAREN, Token()); }
 			Advance();
-			condition = p_and_expr(table);
+			condition = p_expression(code);
 			if (Token() != lexer.CLOSE_PAREN) { throw new ParseError(lexer.CLOSE_PAREN, Token()); }
 			Advance();
-			body = p_block(table);
-			t1 = new TcBranch(table, condition, body);
-			t0.Link(t1);
+			body = p_block(code);
+			t1 = code.Arm(condition, body);
+			code.Link(t0, t1);
 			t0 = t1;
 		}
 
 		// Generate and link the final 'else' branch if present.
 		if (Token() == lexer.BRN_ELSE) {
 			Advance();
-			body = p_block(table);
-			t1 = new TcBranch(table, new TcLiteral("true"), body);
-			t0.Link(t1);
+			body = p_block(code);
+			t1 = code.Arm(code.Literal(nameTrue), body);
+			code.Link(t0, t1);
 		}
 
-		parseScope.pop();
-		return out;
+		return code.Branch(out);
 	}
 
-	public TcLoop p_loop_expr(SymbolTable table)
+	public int p_loop_expr(Arena code)
 			throws CompilerError
 	{
-		parseScope.push("<loop_expr>");
-
-		TcLoop 			out = null;
-		TreeCode		condition = null;
-		TreeCode[]		body = null;
+		int				out = Arena.NONE;
+		int				condition = Arena.NONE;
+		int				body = Arena.NONE;
 
 		if (Token() != lexer.LP_WHILE) { throw new ParseError(lexer.LP_WHILE, Token()); }
 		Advance();
 		if (Token() != lexer.OPEN_PAREN) { throw new ParseError(lexer.OPEN_PAREN, Token()); }
 		Advance();
-		condition = p_and_expr(table);
+		condition = p_expression(code);
 		if (Token() != lexer.CLOSE_PAREN) { throw new ParseError(lexer.CLOSE_PAREN, Token()); }
 		Advance();
-		body = p_block(table);
-		out = new TcLoop(table, condition, body);
+		body = p_block(code);
+		out = code.Loop(condition, body);
 
-		parseScope.pop();
 		return out;
 	}
 
-	public TreeCode[] p_block(SymbolTable table)
+	// p_block(..) method returns the first expression of the block, or NONE
+	//	if it is empty.
+	public int p_block(Arena code)
 			throws CompilerError
 	{
-		parseScope.push("<block>");
-
-		TreeCode[]			out = null;
-		Stack<TreeCode>		exprStack = new Stack<>();
+		int					out = Arena.NONE;
+		int					last = Arena.NONE;
 
 		if (Token() != lexer.OPEN_BLOCK) { throw new ParseError(lexer.OPEN_BLOCK, Token()); }
 		Advance();
 		while (Token() != lexer.CLOSE_BLOCK) {
-			exprStack.push(p_expr(table));
+			int e = p_expr(code);
+			if (last == Arena.NONE) {
+				out = e;
+			} else {
+				code.Link(last, e);
+			}
+			last = e;
 			if (Token() != lexer.SEMICOLON) { throw new ParseError(lexer.SEMICOLON, Token()); }
 			Advance();
 		}
 		Advance();
-		out = exprStack.toArray(new TreeCode[0]);
-
-		parseScope.pop();
-		return out;
-	}
-
-	public TreeCode p_and_expr(SymbolTable table)
-			throws CompilerError
-	{
-		parseScope.push("<and_expr>");
-
-		TreeCode 	out = null;
-		TreeCode 	first = p_or_expr(table);
-
-		if (Token() == lexer.LGC_AND) {
-			Advance();
-			out = new TcAnd(first, p_and_expr(table));
-		} else {
-			out = first;
-		}
-
-		parseScope.pop();
-		return out;
-	}
-
-	public TreeCode p_or_expr(SymbolTable table)
-			throws CompilerError
-	{
-		parseScope.push("<or_expr>");
-
-		TreeCode 	out = null;
-		TreeCode 	first = p_not_expr(table);
-
-		if (Token() == lexer.LGC_OR) {
-			Advance();
-			out = new TcOr(first, p_or_expr(table));
-		} else {
-			out = first;
-		}
-
-		parseScope.pop();
-		return out;
-	}
-
-	public TreeCode p_not_expr(SymbolTable table)
-			throws CompilerError
-	{
-		parseScope.push("<not_expr>");
-
-		TreeCode out = null;
-
-		if (Token() == lexer.LGC_NOT) {
-			Advance();
-			out = new TcNot(p_condition(table));
-		} else {
-			out = p_condition(table);
-		}
 
-		parseScope.pop();
 		return out;
 	}
 
-	public TreeCode p_condition(SymbolTable table)
+	// Syntax elements of expressions, as kept on the expression stack.
+	private static final int		E_AND = 0;
+	private static final int		E_OR = 1;
+	private static final int		E_NOT = 2;
+	private static final int		E_CONDITION = 3;
+	private static final int		E_SUM = 4;
+	private static final int		E_MUL = 5;
+	private static final int		E_RVALUE = 6;
+
+	private static final String[]	E_NAMES = {
+		"<and_expr>", "<or_expr>", "<not_expr>", "<condition>", "<sum_expr>", "<mul_expr>", "<rvalue>" };
+
+	// p_expression(..) method parses an <and_expr>, and with it everything
+	//	below it in the grammar.  Expressions are parsed by the same descent
+	//	as the rest of the grammar, but on a stack of their own rather than
+	//	on the Java stack, so that neither a long chain of operators nor
+	//	deeply nested parentheses or calls can overflow it.
+	// NOTE: Each element on the stack is one (would-be recursive) parsing
+	//	method, and its state says how far along that method is; 'value' is
+	//	what the element last completed returned.
+	public int p_expression(Arena code)
 			throws CompilerError
 	{
-		parseScope.push("<condition>");
-
-		TreeCode 	out = null;
-		TreeCode 	left = p_sum_expr(table);
-		TreeCode 	right = null;
-		String		op = "";
-
-		if (Token() == lexer.OP_CMP) {
-			op = Text();
-			Advance();
-			right = p_sum_expr(table);
-			out = new TcCall(table, op, new TreeCode[]{left, right});
-		} else {
-			out = left;
-		}
-
-		parseScope.pop();
-		return out;
-	}
-
-	// NOTE: This method is left-associative -- calculations are grouped
-	//	from left to right: 1 + 2 + 3 + 4 = ((1 + 2) + 3) + 4)
-	public TreeCode p_sum_expr(SymbolTable table)
-			throws CompilerError
-	{
-		parseScope.push("<sum_expr>");
-
-		TreeCode 	out = null;
-		TreeCode 	left = p_mul_expr(table);
-		TreeCode 	right = null;
-		String		op = "";
+		final int	base = exprTop;
+		int			value = Arena.NONE;
+
+		PushExpr(E_AND);
+		while (exprTop > base) {
+			final int top = exprTop - 1;
+
+			switch (exprKinds[top]) {
+				// <or_expr> [ '&&' <and_expr> ]
+				case E_AND:
+					if (exprStates[top] == 0) {
+						exprStates[top] = 1;
+						PushExpr(E_OR);
+					} else if (exprStates[top] == 1 && Token() == lexer.LGC_AND) {
+						Advance();
+						exprLefts[top] = value;
+						exprStates[top] = 2;
+						PushExpr(E_AND);
+					} else {
+						if (exprStates[top] == 2) {
+							value = code.And(exprLefts[top], value);
+						}
+						PopExpr();
+					}
+					break;
+
+				// <not_expr> [ '||' <or_expr> ]
+				case E_OR:
+					if (exprStates[top] == 0) {
+						exprStates[top] = 1;
+						PushExpr(E_NOT);
+					} else if (exprStates[top] == 1 && Token() == lexer.LGC_OR) {
+						Advance();
+						exprLefts[top] = value;
+						exprStates[top] = 2;
+						PushExpr(E_OR);
+					} else {
+						if (exprStates[top] == 2) {
+							value = code.Or(exprLefts[top], value);
+						}
+						PopExpr();
+					}
+					break;
+
+				// [ '!' ] <condition>
+				case E_NOT:
+					if (exprStates[top] == 0) {
+						exprStates[top] = 1;
+						if (Token() == lexer.LGC_NOT) {
+							Advance();
+							exprStates[top] = 2;
+						}
+						PushExpr(E_CONDITION);
+					} else {
+						if (exprStates[top] == 2) {
+							value = code.Not(value);
+						}
+						PopExpr();
+					}
+					break;
+
+				// <sum_expr> [ <OP_CMP> <sum_expr> ]
+				case E_CONDITION:
+					if (exprStates[top] == 0) {
+						exprStates[top] = 1;
+						PushExpr(E_SUM);
+					} else if (exprStates[top] == 1 && Token() == lexer.OP_CMP) {
+						exprLefts[top] = value;
+						exprOps[top] = Name();
+						Advance();
+						exprStates[top] = 2;
+						PushExpr(E_SUM);
+					} else {
+						if (exprStates[top] == 2) {
+							code.Link(exprLefts[top], value);
+							value = code.Call(exprOps[top], exprLefts[top]);
+						}
+						PopExpr();
+					}
+					break;
+
+				// NOTE: Sums and products are left-associative -- calculations
+				//	are grouped from left to right:
+				//	1 + 2 + 3 + 4 = ((1 + 2) + 3) + 4)
+				case E_SUM:
+				case E_MUL:
+					if (exprStates[top] == 0) {
+						exprStates[top] = 1;
+						PushExpr(exprKinds[top] == E_SUM ? E_MUL : E_RVALUE);
+						break;
+					}
+					if (exprStates[top] == 2) {
+						code.Link(exprLefts[top], value);
+						value = code.Call(exprOps[top], exprLefts[top]);
+					}
+					exprLefts[top] = value;
+					if (exprKinds[top] == E_SUM ? (Token() == lexer.OP_ADD || Token() == lexer.OP_SUB)
+							: (Token() == lexer.OP_MUL || Token() == lexer.OP_DIV)) {
+						exprOps[top] = Name();
+						Advance();
+						exprStates[top] = 2;
+						PushExpr(exprKinds[top] == E_SUM ? E_MUL : E_RVALUE);
+					} else {
+						value = exprLefts[top];
+						PopExpr();
+					}
+					break;
 
-		while (Token() == lexer.OP_ADD || Token() == lexer.OP_SUB) {
-			op = Text();
-			Advance();
-			right = p_mul_expr(table);
-			left = new TcCall(table, op, new TreeCode[]{left, right});
+				case E_RVALUE:
+					value = p_rvalue(code, top, value);
+					break;
+			}
 		}
-		out = left;
 
-		parseScope.pop();
-		return out;
+		return value;
 	}
 
-	// This method is also left-associative.
-	public TreeCode p_mul_expr(SymbolTable table)
+	// p_rvalue(..) method takes one step of parsing the <rvalue> at 'top'
+	//	of the expression stack, returning its value once it is complete
+	//	(and popped), or NONE before.  Parenthesized expressions and call
+	//	arguments are pushed onto the stack, to be parsed before the next
+	//	step.
+	// NOTE: This method is a bit ugly.  May want to refactor it and pretty it
+	//	up later.
+	private int p_rvalue(Arena code, int top, int value)
 			throws CompilerError
 	{
-		parseScope.push("<mul_expr>");
+		switch (exprStates[top]) {
+			// '(' <and_expr> -- expects the ')'.
+			case 1:
+				if (Token() != lexer.CLOSE_PAREN) { throw new ParseError(lexer.CLOSE_PAREN, Token()); }
+				Advance();
+				PopExpr();
+				return value;
+
+			// <call_expr> -- an argument has been parsed.
+			case 2:
+				if (exprLefts[top] == Arena.NONE) {
+					exprBases[top] = value;
+				} else {
+					code.Link(exprLefts[top], value);
+				}
+				exprLefts[top] = value;
+				if (Token() == lexer.COMMA) {
+					Advance();
+					PushExpr(E_AND);
+					return Arena.NONE;
+				}
+				exprStates[top] = 3;
+				return Arena.NONE;
 
-		TreeCode 	out = null;
-		TreeCode 	left = p_rvalue(table);
-		TreeCode 	right = null;
-		String		op = "";
+			// <call_expr> -- all arguments have been parsed.
+			case 3:
+				if (Token() != lexer.CLOSE_PAREN) { throw new ParseError(lexer.CLOSE_PAREN, Token()); }
+				Advance();
+				value = code.Call(exprOps[top], exprBases[top]);
+				PopExpr();
+				return value;
 
-		while (Token() == lexer.OP_MUL || Token() == lexer.OP_DIV) {
-			op = Text();
-			Advance();
-			right = p_rvalue(table);
-			left = new TcCall(table, op, new TreeCode[]{left, right});
+			default:
+				break;
 		}
-		out = left;
-
-		parseScope.pop();
-		return out;
-	}
-
-	// NOTE: This method is a bit ugly.  May want to refactor it and pretty it
-	//	up later.
-	public TreeCode p_rvalue(SymbolTable table)
-			throws CompilerError
-	{
-		parseScope.push("<rvalue>");
 
-		TreeCode 	out = null;
+		int		 	out = Arena.NONE;
 
 		if (Token() == lexer.OP_SUB) {
 			Advance();
 			if (Token() == lexer.NAME) {
-				out = new TcCall(table, "-", new TreeCode[]{new TcValue(table, Text())});
+				out = code.Call(nameSub, code.Value(Name()));
 				Advance();
 			} else if (Token() == lexer.LITERAL) {
-				out = new TcCall(table, "-", new TreeCode[]{new TcLiteral(Text())});
+				out = code.Call(nameSub, code.Literal(Name()));
 				Advance();
 			} else {
 				// TODO: implement ParseError constructor for multiple 'expected' tokens.
@@ -563,59 +987,105 @@ public class Compiler {
 			Advance();
 			if (Token() != lexer.NAME) { throw new ParseError(lexer.NAME, Token()); }
 
-			String		var = Text();
-			TreeCode	inc = new TcCall(table, "+", new TreeCode[]{new TcValue(table, var), new TcLiteral("1")});
+			int			var = Name();
 
-			out = new TcAssign(table, var, inc);
+			out = code.Assign(var);
+			int			inc = code.Value(var);
+			code.Link(inc, code.Literal(nameOne));
+			code.Assign(out, code.Call(nameAdd, inc));
 			Advance();
 		} else if (Token() == lexer.OP_DEC) {
 			Advance();
 			if (Token() != lexer.NAME) { throw new ParseError(lexer.NAME, Token()); }
 
-			String		var = Text();
-			TreeCode	inc = new TcCall(table, "-", new TreeCode[]{new TcValue(table, var), new TcLiteral("1")});
+			int			var = Name();
 
-			out = new TcAssign(table, var, inc);
+			out = code.Assign(var);
+			int			inc = code.Value(var);
+			code.Link(inc, code.Literal(nameOne));
+			code.Assign(out, code.Call(nameSub, inc));
 			Advance();
 		} else if (Token() == lexer.OPEN_PAREN) {
 			Advance();
-			out = p_and_expr(table);
-			if (Token() != lexer.CLOSE_PAREN) { throw new ParseError(lexer.CLOSE_PAREN, Token()); }
-			Advance();
+			exprStates[top] = 1;
+			PushExpr(E_AND);
+			return Arena.NONE;
 		} else if (Token() == lexer.LITERAL) {
-			out = new TcLiteral(Text());
+			out = code.Literal(Name());
 			Advance();
 		} else if (Token() == lexer.NAME) {
 			// Here we have an ambiguity -- could be <call_expr> or just <NAME>.
 			if (Peek() == lexer.OPEN_PAREN) {
 				// <call_expr>
-				String				name = Text();
-				TreeCode[]			args = null;
-				Stack<TreeCode>		argStack = new Stack<>();
-
+				exprOps[top] = Name();
+				exprBases[top] = Arena.NONE;
+				exprLefts[top] = Arena.NONE;
 				Advance();
 				Advance();
+				exprStates[top] = 3;
 				if (Token() != lexer.CLOSE_PAREN) {
-					argStack.push(p_and_expr(table));
-					while (Token() == lexer.COMMA) {
-						Advance();
-						argStack.push(p_and_expr(table));
-					}
+					exprStates[top] = 2;
+					PushExpr(E_AND);
 				}
-				if (Token() != lexer.CLOSE_PAREN) { throw new ParseError(lexer.CLOSE_PAREN, Token()); }
-				Advance();
-				args = argStack.toArray(new TreeCode[0]);
-				out = new TcCall(table, name, args);
+				return Arena.NONE;
 			} else {
 				// <NAME>
-				out = new TcValue(table, Text());
+				out = code.Value(Name());
 				Advance();
 			}
 		} else {
 			throw new ParseError(-2, Token());
 		}
 
-		parseScope.pop();
+		PopExpr();
+		return out;
+	}
+
+	// PushExpr(..) and PopExpr(..) methods push and pop the expression stack.
+	private void PushExpr(int kind) {
+		if (exprTop == exprKinds.length) {
+			int n = 2 * exprTop;
+			exprKinds = Arrays.copyOf(exprKinds, n);
+			exprStates = Arrays.copyOf(exprStates, n);
+			exprLefts = Arrays.copyOf(exprLefts, n);
+			exprOps = Arrays.copyOf(exprOps, n);
+			exprBases = Arrays.copyOf(exprBases, n);
+		}
+		exprKinds[exprTop] = kind;
+		exprStates[exprTop] = 0;
+		++exprTop;
+	}
+
+	private void PopExpr() {
+		--exprTop;
+	}
+
+	// PushCode(..) and PushName(..) methods add to the list being parsed;
+	//	PopCodes(..) and PopNames(..) return the list pushed since 'base'.
+	private void PushCode(TreeCode tc) {
+		if (codeTop == codeStack.length) {
+			codeStack = Arrays.copyOf(codeStack, 2 * codeTop);
+		}
+		codeStack[codeTop++] = tc;
+	}
+
+	private TreeCode[] PopCodes(int base) {
+		TreeCode[] out = Arrays.copyOfRange(codeStack, base, codeTop);
+		Arrays.fill(codeStack, base, codeTop, null);
+		codeTop = base;
+		return out;
+	}
+
+	private void PushName(int name) {
+		if (nameTop == nameStack.length) {
+			nameStack = Arrays.copyOf(nameStack, 2 * nameTop);
+		}
+		nameStack[nameTop++] = name;
+	}
+
+	private int[] PopNames(int base) {
+		int[] out = Arrays.copyOfRange(nameStack, base, nameTop);
+		nameTop = base;
 		return out;
 	}
 
@@ -625,32 +1095,41 @@ public class Compiler {
 
 	// Token(..) method returns the next token.
 	public int Token() {
+		if (tapeAt < tapeLength) {
+			return tapeTokens[tapeAt];
+		}
 		try {
 			return lexer.peekToken(0);
 		} catch (IllegalArgumentException e) {
-			System.out.println("Bad argument to lexer.peekToken(..)");
+			log.println("Bad argument to lexer.peekToken(..)");
 			return -1;
 		}
 	}
 
-	// Text(..) method returns the next lexeme.
+	// Name(..) method returns the number of the next lexeme in the pool.
 	// NOTE: For some tokens, the lexeme is not defined/available, and
-	//	the empty string will be returned instead.
-	public String Text() {
+	//	-1 will be returned instead.
+	public int Name() {
+		if (tapeAt < tapeLength) {
+			return tapeNames[tapeAt];
+		}
 		try {
-			return lexer.peekLexeme(0);
+			return lexer.peekName(0);
 		} catch (IllegalArgumentException e) {
-			System.out.println("Bad argument to lexer.peekLexeme(..)");
-			return "";
+			log.println("Bad argument to lexer.peekName(..)");
+			return -1;
 		}
 	}
 
 	// Peek(..) method returns the token AHEAD of the next token.
 	public int Peek() {
+		if (tapeAt + 1 < tapeLength) {
+			return tapeTokens[tapeAt + 1];
+		}
 		try {
-			return lexer.peekToken(1);
+			return lexer.peekToken(tapeAt < tapeLength ? 0 : 1);
 		} catch (IllegalArgumentException e) {
-			System.out.println("Bad argument to lexer.peekToken(..)");
+			log.println("Bad argument to lexer.peekToken(..)");
 			return -1;
 		}
 	}
@@ -663,30 +1142,161 @@ public class Compiler {
 		//	raised by advancing the lexer, then it is unlikely that any
 		//	further execution of the program will succeed.
 		// TODO: Move exception handling to a more sensible place.
+		if (tapeAt < tapeLength) {
+			++tapeAt;
+			return;
+		}
+		Lex();
+	}
+
+	// Lex(..) method has the lexer read the next token, timing it if the
+	//	compilation is measured.
+	private void Lex()
+			throws CompilerError
+	{
 		try {
-			lexer.advance();
+			if (metrics == null) {
+				lexer.advance();
+			} else {
+				long t0 = System.nanoTime();
+				lexer.advance();
+				metrics.Lex(System.nanoTime() - t0);
+			}
 		} catch (IOException e) {
-			throw new FatalError("IOException in lexer.advance(..)");
+			throw new FatalError("IOException in lexer.advance(..): " + e.getMessage());
+		}
+	}
+
+	// Line(..) and Column(..) methods return the position of the next token,
+	//	which the lexer works out from its offset only when asked.
+	public int Line() {
+		return (tapeAt < tapeLength ? lexer.lineAt(tapeOffsets[tapeAt]) : lexer.line());
+	}
+
+	public int Column() {
+		return (tapeAt < tapeLength ? lexer.columnAt(tapeOffsets[tapeAt]) : lexer.column());
+	}
+
+	// Record(..) method reads the tokens of the next function, from its name
+	//	up to its closing brace (or the end of the input), onto the tape, and
+	//	returns its cache key.  The key is a hash of the tokens and lexemes,
+	//	and of the options that change the code generated for them.
+	private String Record()
+			throws CompilerError
+	{
+		if (tapeTokens == null) {
+			tapeTokens = new int[256];
+			tapeNames = new int[256];
+			tapeOffsets = new int[256];
+			digestChars = new byte[64];
+			try {
+				digest = MessageDigest.getInstance("SHA-256");
+			} catch (NoSuchAlgorithmException e) {
+				throw new FatalError("SHA-256 is not available.");
+			}
+		}
+
+		digest.reset();
+		digest.update((byte) (optimize ? 1 : 0));
+		tapeAt = 0;
+		tapeLength = 0;
+
+		int depth = 0;
+		boolean body = false;
+		while (lexer.peekToken(0) != NanoLexer.EOF) {
+			int token = lexer.peekToken(0);
+			int name = lexer.peekName(0);
+
+			if (tapeLength == tapeTokens.length) {
+				tapeTokens = Arrays.copyOf(tapeTokens, 2 * tapeLength);
+				tapeNames = Arrays.copyOf(tapeNames, 2 * tapeLength);
+				tapeOffsets = Arrays.copyOf(tapeOffsets, 2 * tapeLength);
+			}
+			tapeTokens[tapeLength] = token;
+			tapeNames[tapeLength] = name;
+			tapeOffsets[tapeLength] = lexer.peekOffset(0);
+			++tapeLength;
+
+			digest.update((byte) (token >>> 8));
+			digest.update((byte) token);
+			if (name >= 0) {
+				Digest(names.Name(name));
+			}
+			digest.update((byte) 0);
+
+			Lex();
+
+			if (token == NanoLexer.OPEN_BLOCK) {
+				++depth;
+				body = true;
+			} else if (token == NanoLexer.CLOSE_BLOCK) {
+				--depth;
+			}
+			if (body && depth == 0) {
+				break;
+			}
+		}
+
+		StringBuilder key = new StringBuilder(64);
+		for (byte b : digest.digest()) {
+			key.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+		}
+		return key.toString();
+	}
+
+	// Digest(..) method adds the characters of a lexeme to the key, two bytes
+	//	apiece, through a reused array rather than an encoding of each.
+	private void Digest(String text) {
+		int n = 2 * text.length();
+		if (n > digestChars.length) {
+			digestChars = new byte[Math.max(n, 2 * digestChars.length)];
+		}
+		for (int i = 0; i < text.length(); ++i) {
+			char c = text.charAt(i);
+			digestChars[2 * i] = (byte) (c >>> 8);
+			digestChars[2 * i + 1] = (byte) c;
 		}
+		digest.update(digestChars, 0, n);
 	}
 
 	// ---- Error-handling & Debugging methods/classes ----
 
-	// ParseTrace(..) method prints out a trace of the parsing stack,
-	//	in its current state.  Used during error handling, and for debugging.
-	public void ParseTrace() {
+	// ParseTrace(..) method prints out a trace of the parsing stack, as it
+	//	was when 'e' was thrown.  Used during error handling.
+	public void ParseTrace(ParseError e) {
 		String prefix = " ";
-		String[] stack = parseScope.toArray(new String[0]);
+		String[] stack = e.scope;
 		for (int i = 0; i < stack.length; ++i) {
 			String write = "";
 			for (int j = 0; j < i; ++j) {
 				write = write + prefix;
 			}
 			write = write + stack[i];
-			System.out.println(write);
+			log.println(write);
 		}
 	}
 
+	// Scope(..) method returns the syntax elements being parsed, outermost
+	//	first.  Nothing keeps track of these while parsing; they are read off
+	//	the p_***** methods on the call stack, and the expression stack, only
+	//	once a ParseError is made.
+	private String[] Scope() {
+		String[] methods = StackWalker.getInstance().walk(frames -> frames
+				.filter(f -> f.getClassName().equals("Compiler") && f.getMethodName().startsWith("p_")
+						&& !f.getMethodName().equals("p_expression") && !f.getMethodName().equals("p_rvalue"))
+				.map(f -> "<" + f.getMethodName().substring(2) + ">")
+				.toArray(String[]::new));
+
+		String[] scope = new String[methods.length + exprTop];
+		for (int i = 0; i < methods.length; ++i) {
+			scope[i] = methods[methods.length - 1 - i];
+		}
+		for (int i = 0; i < exprTop; ++i) {
+			scope[methods.length + i] = E_NAMES[exprKinds[i]];
+		}
+		return scope;
+	}
+
 	// Map(..) function maps an integer token to an associated string.
 	//	This method is provided here to provide a single clearinghouse
 	//	for convenience -- when we're parsing and a grammar error is
@@ -731,8 +1341,15 @@ public class Compiler {
 	}
 
 	public class ParseError extends CompilerError {
+		private final String[] scope;
+
 		public ParseError(int expected, int received) {
-			super("Parse error in " + parseScope.peek() + " (L:" + Integer.toString(lexer.line()) + " C:" + Integer.toString(lexer.column()) + ") expected " + Map(expected) + ", got " + Map(received));
+			this(Scope(), expected, received);
+		}
+
+		private ParseError(String[] where, int expected, int received) {
+			super("Parse error in " + (where.length > 0 ? where[where.length - 1] : "<program>") + " (L:" + Integer.toString(Line()) + " C:" + Integer.toString(Column()) + ") expected " + Map(expected) + ", got " + Map(received));
+			scope = where;
 		}
 	}
 }
\ No newline at end of file
@@ -0,0 +1,558 @@
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.StringWriter;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Daemon class keeps a compiler resident, warmed up, so that compiling a
+//	small file costs neither JVM startup nor a lexer and parser running in
+//	the interpreter.  Usage:
+//	Compiler --daemon [--socket _path_] [--stdio] [--cache _dir_] [--no-warmup] [--stats]
+//		Serves compile requests on a Unix domain socket (or, given --stdio, on
+//		standard in and out) until asked to stop.  Given --stats, every
+//		compilation is measured (see Metrics), and 'stats' reports the
+//		histograms of them all as well, as a line of JSON.
+//	java -cp . Daemon [--socket _path_] [--no-peephole] [--cache _dir_] _in_.nm _out_.masm
+//	java -cp . Daemon [--socket _path_] --stats|--stop
+//		The client: a drop-in for 'java -cp . Compiler _in_.nm _out_.masm'
+//		that has the daemon compile, and prints its diagnostics.  Without a
+//		daemon to talk to it compiles in its own JVM instead.
+// Requests and responses are framed alike: lines of 'name value' headers,
+//	an empty line, then as many bytes of body as the headers declare.
+//	A request starts with its verb ('compile', 'stats' or 'stop'), and is
+//	followed by any of
+//		in _path_		out _path_		target _name_
+//		no-peephole		cache _dir_		text _length_
+//	where 'text' gives the source inline, in the body; without 'out', the
+//	MASM is returned in the response.  A response is
+//		exit _status_	log _length_	[masm _length_]
+//	followed by the diagnostics and the MASM.  A connection may carry any
+//	number of requests, one after another.
+// Every connection is served on a thread of its own, and all compilations
+//	share one FunctionCache, so that rebuilding an edited file reuses the
+//	functions that did not change.  The latency of each request is kept,
+//	and its percentiles are reported by 'stats' and on stopping.
+// NOTE: Virtual threads are not available on the JDK this is built with
+//	(17); connections are served on a cached pool of platform threads,
+//	which is as cheap for the few connections a build makes.
+public class Daemon {
+
+	private static final int	LATENCIES = 4096;
+	private static final int	WARMUP_ROUNDS = 30;
+	private static final long	WARMUP_NANOS = 3000000000L;
+
+	private final FunctionCache			functions;
+	private final DiskCache				disk;
+	private final Path					scratch;
+	private final AtomicLong			requestCount;
+	private final long[]				latencies;
+	private final Metrics.Totals		totals;
+	private ServerSocketChannel			server;
+	private volatile boolean			stopping;
+
+	private Daemon(DiskCache cache, boolean measure)
+			throws IOException
+	{
+		functions = new FunctionCache();
+		disk = cache;
+		scratch = Files.createTempDirectory("nmd");
+		requestCount = new AtomicLong();
+		latencies = new long[LATENCIES];
+		totals = (measure ? new Metrics.Totals() : null);
+		server = null;
+		stopping = false;
+	}
+
+	// Run(..) method handles the daemon options starting at args[first], and
+	//	serves requests until stopped.  Returns the exit status.
+	public static int Run(String[] args, int first) {
+		String	socket = DefaultSocket();
+		String	cacheDir = null;
+		boolean	stdio = false;
+		boolean	warmup = true;
+		boolean	measure = false;
+
+		for (int i = first; i < args.length; ++i) {
+			if (args[i].equals("--socket") && i + 1 < args.length) {
+				socket = args[++i];
+			} else if (args[i].equals("--cache") && i + 1 < args.length) {
+				cacheDir = args[++i];
+			} else if (args[i].equals("--stdio")) {
+				stdio = true;
+			} else if (args[i].equals("--no-warmup")) {
+				warmup = false;
+			} else if (args[i].equals("--stats")) {
+				measure = true;
+			} else {
+				System.err.println("Unknown option " + args[i]);
+				return 1;
+			}
+		}
+
+		Daemon d = null;
+		try {
+			d = new Daemon(cacheDir != null ? DiskCache.Open(cacheDir) : null, measure);
+			if (warmup) {
+				d.Warmup();
+			}
+			if (stdio) {
+				d.Session(new BufferedInputStream(System.in),
+						new BufferedOutputStream(new FileOutputStream(FileDescriptor.out)));
+			} else {
+				d.Listen(Paths.get(socket));
+			}
+			System.err.println(d.Stats());
+			return 0;
+		} catch (IOException e) {
+			System.err.println("Daemon failed: " + e.getMessage());
+			return 1;
+		} finally {
+			if (d != null) {
+				d.Clean();
+			}
+		}
+	}
+
+	// Listen(..) method accepts connections on the socket at 'path' until a
+	//	'stop' request closes it.
+	private void Listen(Path path)
+			throws IOException
+	{
+		ExecutorService pool = Executors.newCachedThreadPool(r -> {
+			Thread t = new Thread(r, "nm-daemon");
+			t.setDaemon(true);
+			return t;
+		});
+
+		Files.deleteIfExists(path);
+		server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+		server.bind(UnixDomainSocketAddress.of(path));
+		System.err.println("Listening on " + path);
+
+		try {
+			while (!stopping) {
+				SocketChannel client;
+				try {
+					client = server.accept();
+				} catch (IOException e) {
+					// Closed by a 'stop' request.
+					break;
+				}
+				pool.submit(() -> {
+					try (SocketChannel c = client) {
+						Session(new BufferedInputStream(Channels.newInputStream(c)),
+								new BufferedOutputStream(Channels.newOutputStream(c)));
+					} catch (IOException e) {
+						System.err.println("Connection failed: " + e.getMessage());
+					}
+				});
+			}
+		} finally {
+			server.close();
+			pool.shutdown();
+			Files.deleteIfExists(path);
+		}
+	}
+
+	// Session(..) method serves the requests of one connection, in order.
+	private void Session(InputStream in, OutputStream out)
+			throws IOException
+	{
+		String verb;
+		while (!stopping && (verb = ReadLine(in)) != null) {
+			if (verb.isEmpty()) {
+				continue;
+			}
+			long start = System.nanoTime();
+			Request r = Request.Read(verb, in);
+			Response response = Serve(r);
+			response.Write(out);
+			out.flush();
+			Record(System.nanoTime() - start);
+
+			if (r.verb.equals("stop")) {
+				stopping = true;
+				if (server != null) {
+					server.close();
+				}
+			}
+		}
+	}
+
+	// Serve(..) method carries out one request.
+	private Response Serve(Request r) {
+		ByteArrayOutputStream	buffer = new ByteArrayOutputStream();
+		PrintStream				log = new PrintStream(buffer, true);
+		Response				response = new Response();
+
+		switch (r.verb) {
+			case "compile":
+				response.masm = Compile(r, log);
+				response.status = (response.masm != null ? 0 : 1);
+				if (r.out != null) {
+					response.masm = null;
+				}
+				break;
+			case "stats":
+				log.println(Stats());
+				break;
+			case "stop":
+				log.println("Stopping.");
+				break;
+			default:
+				log.println("Unknown request " + r.verb);
+				response.status = 2;
+				break;
+		}
+
+		log.flush();
+		response.log = buffer.toByteArray();
+		return response;
+	}
+
+	// Compile(..) method compiles the source of a request, returning its
+	//	MASM (or an empty array, if it was written to the request's output),
+	//	or NULL if it failed.
+	private byte[] Compile(Request r, PrintStream log) {
+		Source	source = null;
+		Path	masm = null;
+		boolean	ok = false;
+
+		try {
+			// Source given inline is compiled straight from the request.
+			if (r.text != null) {
+				source = Source.Bytes(r.in != null ? r.in : "<text>", r.text);
+			} else if (r.in != null) {
+				if (!r.in.endsWith(".nm")) {
+					throw new IllegalArgumentException("Input file must match *.nm");
+				}
+				source = Source.File(Paths.get(r.in));
+			} else {
+				log.println("No source to compile.");
+				return null;
+			}
+			masm = (r.out != null ? Paths.get(r.out) : Files.createTempFile(scratch, "out", ".masm"));
+
+			String target = r.target;
+			if (target == null) {
+				target = (r.out != null ? r.out.substring(0, Math.max(r.out.length() - ".masm".length(), 0))
+						: r.in != null ? r.in.substring(0, r.in.length() - ".nm".length()) : "program");
+			}
+
+			Compiler c = new Compiler(source, masm.toString(), log, target);
+			source = null;
+			c.Optimize(r.optimize);
+			c.Cache(functions);
+			if (r.cache != null) {
+				c.Cache(DiskCache.Open(r.cache));
+			} else if (disk != null) {
+				c.Cache(disk);
+			}
+			Metrics m = (totals != null ? c.Measure() : null);
+			ok = c.Build();
+			if (m != null) {
+				totals.Add(m);
+			}
+			return (!ok ? null : r.out != null ? new byte[0] : Files.readAllBytes(masm));
+		} catch (IOException e) {
+			log.println("Failed to construct compiler.");
+			log.println(e.getMessage());
+			return null;
+		} catch (IllegalArgumentException e) {
+			log.println("Invalid argument.");
+			log.println(e.getMessage());
+			return null;
+		} finally {
+			try {
+				// The compiler closes its source; this one never got one.
+				if (source != null) {
+					source.close();
+				}
+				if (r.out == null && masm != null) {
+					Files.deleteIfExists(masm);
+				}
+			} catch (IOException e) {
+				log.println(e.getMessage());
+			}
+		}
+	}
+
+	// Warmup(..) method compiles a Generator program over and over, until
+	//	the lexer, parser and code generator have been compiled by the JIT.
+	private void Warmup()
+			throws IOException
+	{
+		long		start = System.nanoTime();
+		Generator	g = new Generator();
+		StringWriter	program = new StringWriter();
+		Path		masm = scratch.resolve("warmup.masm");
+		PrintStream	quiet = new PrintStream(OutputStream.nullOutputStream());
+
+		g.functions = 200;
+		g.Write(program);
+
+		int rounds = 0;
+		while (rounds < WARMUP_ROUNDS && System.nanoTime() - start < WARMUP_NANOS) {
+			new Compiler(Source.Text("warmup.nm", program.getBuffer()), masm.toString(), quiet, "warmup").Build();
+			++rounds;
+		}
+		Files.deleteIfExists(masm);
+		System.err.println(String.format("Warmed up in %.0f ms (%d compilations)",
+				(System.nanoTime() - start) / 1e6, rounds));
+	}
+
+	private void Clean() {
+		File[] left = scratch.toFile().listFiles();
+		if (left != null) {
+			for (File f : left) {
+				f.delete();
+			}
+		}
+		scratch.toFile().delete();
+	}
+
+	// ---- Latency ----
+
+	private void Record(long nanos) {
+		long n = requestCount.getAndIncrement();
+		synchronized (latencies) {
+			latencies[(int) (n % LATENCIES)] = nanos;
+		}
+	}
+
+	// Stats(..) method reports the number of requests served, and the
+	//	percentiles of the latency of the latest of them; then, if measuring,
+	//	the Metrics.Totals of the compilations.
+	private String Stats() {
+		long	n = requestCount.get();
+		long[]	sorted;
+		synchronized (latencies) {
+			sorted = Arrays.copyOf(latencies, (int) Math.min(n, LATENCIES));
+		}
+		Arrays.sort(sorted);
+
+		StringBuilder sb = new StringBuilder();
+		sb.append("Daemon: ").append(n).append(" requests, ").append(functions.Size()).append(" functions cached");
+		if (sorted.length > 0) {
+			sb.append(String.format(", latency p50 %.3f ms, p90 %.3f ms, p99 %.3f ms, max %.3f ms",
+					Percentile(sorted, 50) / 1e6, Percentile(sorted, 90) / 1e6,
+					Percentile(sorted, 99) / 1e6, sorted[sorted.length - 1] / 1e6));
+		}
+		if (totals != null) {
+			sb.append('\n').append(totals.Json());
+		}
+		return sb.toString();
+	}
+
+	private static long Percentile(long[] sorted, int p) {
+		int i = (int) Math.ceil(p / 100.0 * sorted.length) - 1;
+		return sorted[Math.max(0, Math.min(i, sorted.length - 1))];
+	}
+
+	// ---- Protocol ----
+
+	// Request class is one request, as read from a connection.
+	private static class Request {
+		String	verb;
+		String	in = null;
+		String	out = null;
+		String	target = null;
+		String	cache = null;
+		boolean	optimize = true;
+		byte[]	text = null;
+
+		static Request Read(String verb, InputStream in)
+				throws IOException
+		{
+			Request r = new Request();
+			int length = -1;
+
+			r.verb = verb;
+			for (String line = ReadLine(in); line != null && !line.isEmpty(); line = ReadLine(in)) {
+				int space = line.indexOf(' ');
+				String name = (space < 0 ? line : line.substring(0, space));
+				String value = (space < 0 ? "" : line.substring(space + 1));
+				switch (name) {
+					case "in":			r.in = value; break;
+					case "out":			r.out = value; break;
+					case "target":		r.target = value; break;
+					case "cache":		r.cache = value; break;
+					case "no-peephole":	r.optimize = false; break;
+					case "text":		length = Integer.parseInt(value); break;
+					default:			throw new IOException("Unknown header " + name);
+				}
+			}
+			if (length >= 0) {
+				r.text = in.readNBytes(length);
+				if (r.text.length < length) {
+					throw new IOException("Source ends early.");
+				}
+			}
+			return r;
+		}
+	}
+
+	// Response class is the answer to one request.
+	private static class Response {
+		int		status = 0;
+		byte[]	log = new byte[0];
+		byte[]	masm = null;
+
+		void Write(OutputStream out)
+				throws IOException
+		{
+			StringBuilder sb = new StringBuilder();
+			sb.append("exit ").append(status).append('\n');
+			sb.append("log ").append(log.length).append('\n');
+			if (masm != null) {
+				sb.append("masm ").append(masm.length).append('\n');
+			}
+			sb.append('\n');
+			out.write(sb.toString().getBytes(StandardCharsets.UTF_8));
+			out.write(log);
+			if (masm != null) {
+				out.write(masm);
+			}
+		}
+	}
+
+	// ReadLine(..) method reads one line of UTF-8, without its line break,
+	//	returning NULL at the end of the input.
+	private static String ReadLine(InputStream in)
+			throws IOException
+	{
+		ByteArrayOutputStream line = new ByteArrayOutputStream();
+		int b;
+		while ((b = in.read()) != '\n') {
+			if (b < 0) {
+				return (line.size() > 0 ? line.toString(StandardCharsets.UTF_8) : null);
+			}
+			line.write(b);
+		}
+		return line.toString(StandardCharsets.UTF_8);
+	}
+
+	private static String DefaultSocket() {
+		return Paths.get(System.getProperty("java.io.tmpdir"),
+				"nanomorpho-" + System.getProperty("user.name") + ".sock").toString();
+	}
+
+	// ---- Client ----
+
+	public static void main(String[] args) {
+		System.exit(Client(args));
+	}
+
+	// Client(..) method sends one request to the daemon, and prints what it
+	//	answers; the exit status is that of the request.
+	public static int Client(String[] args) {
+		String			socket = DefaultSocket();
+		StringBuilder	request = new StringBuilder();
+		String			verb = "compile";
+		String			cacheDir = null;
+		boolean			optimize = true;
+		int				i = 0;
+
+		for (; i < args.length && args[i].startsWith("--"); ++i) {
+			if (args[i].equals("--socket") && i + 1 < args.length) {
+				socket = args[++i];
+			} else if (args[i].equals("--cache") && i + 1 < args.length) {
+				cacheDir = args[++i];
+				request.append("cache ").append(new File(cacheDir).getAbsolutePath()).append('\n');
+			} else if (args[i].equals("--no-peephole")) {
+				optimize = false;
+				request.append("no-peephole\n");
+			} else if (args[i].equals("--stats") || args[i].equals("--stop")) {
+				verb = args[i].substring(2);
+			} else {
+				System.out.println("Unknown option " + args[i]);
+				return 1;
+			}
+		}
+		if (verb.equals("compile")) {
+			if (args.length < i + 2) {
+				System.out.println("Daemon client requires 2 arguments; [options] [input file] [output file]");
+				System.out.println("   or: Daemon [--socket path] --stats|--stop");
+				return 1;
+			}
+			request.append("in ").append(new File(args[i]).getAbsolutePath()).append('\n');
+			request.append("out ").append(new File(args[i + 1]).getAbsolutePath()).append('\n');
+			// The .mexe is named as the Compiler would name it.
+			request.append("target ").append(args[i + 1], 0, Math.max(args[i + 1].length() - ".masm".length(), 0)).append('\n');
+		}
+
+		SocketChannel channel;
+		try {
+			channel = SocketChannel.open(UnixDomainSocketAddress.of(socket));
+		} catch (IOException e) {
+			if (!verb.equals("compile")) {
+				System.out.println("No daemon at " + socket);
+				return 1;
+			}
+			return Local(args[i], args[i + 1], optimize, cacheDir);
+		}
+
+		try (SocketChannel c = channel) {
+			OutputStream out = new BufferedOutputStream(Channels.newOutputStream(c));
+			out.write((verb + "\n" + request + "\n").getBytes(StandardCharsets.UTF_8));
+			out.flush();
+
+			InputStream in = new BufferedInputStream(Channels.newInputStream(c));
+			int status = 1;
+			int logLength = 0;
+			for (String line = ReadLine(in); line != null && !line.isEmpty(); line = ReadLine(in)) {
+				if (line.startsWith("exit ")) {
+					status = Integer.parseInt(line.substring(5));
+				} else if (line.startsWith("log ")) {
+					logLength = Integer.parseInt(line.substring(4));
+				}
+			}
+			System.out.write(in.readNBytes(logLength));
+			System.out.flush();
+			return status;
+		} catch (IOException | NumberFormatException e) {
+			System.out.println("Daemon request failed: " + e.getMessage());
+			return 1;
+		}
+	}
+
+	// Local(..) method compiles in this JVM, when there is no daemon.
+	private static int Local(String fin, String fout, boolean optimize, String cacheDir) {
+		try {
+			Compiler c = new Compiler(fin, fout);
+			c.Optimize(optimize);
+			if (cacheDir != null) {
+				c.Cache(DiskCache.Open(cacheDir));
+			}
+			return (c.Build() ? 0 : 1);
+		} catch (IOException e) {
+			System.out.println("Failed to construct compiler.");
+			System.out.println(e.getMessage());
+			return 1;
+		} catch (IllegalArgumentException e) {
+			System.out.println("Invalid argument.");
+			System.out.println(e.getMessage());
+			return 1;
+		}
+	}
+}
@@ -0,0 +1,476 @@
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+import java.net.URI;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.stream.Stream;
+
+// DiskCache class is a persistent, content-addressed store of compiled .masm
+//	files, shared by every compilation pointed at the same directory, in this
+//	JVM or any other.  A compilation is keyed by a digest of its source bytes,
+//	of the compiler itself (its class files) and of the options that change
+//	its output (see Compiler.Build(..)); a hit is linked (or copied) to the
+//	output, and the source is never lexed or parsed.
+// Layout of the cache directory:
+//	index			a memory mapped, open addressed table of SLOTS entries,
+//					each a key, the size of its object, its last use and its
+//					state; the header holds the total size of all objects
+//	objects/xx/..	the stored .masm files, named by their key, read-only
+// Objects are written to a temporary file and moved into place atomically,
+//	so that a reader never sees half an object.  Every change to the index
+//	is made holding a lock on the index file, which also excludes other JVMs.
+//	Once the objects outgrow the size bound (or the index fills up), the
+//	least recently used ones are evicted.  An entry is removed by shifting
+//	the rest of its probe run back over it, so the index never fills up
+//	with deleted entries that every miss would have to probe past.
+// NOTE: Outputs may be hard links to cached objects, which are read-only so
+//	that writing through a link fails rather than corrupting the cache; the
+//	Compiler therefore always replaces its output, rather than rewriting it.
+public class DiskCache {
+
+	public static final long	DEFAULT_MAX_BYTES = 256L << 20;
+
+	private static final int	MAGIC = 0x4E4D4332;		// "NMC2"
+	private static final int	SLOTS = 8192;
+	private static final int	HEADER = 64;
+	private static final int	SLOT = 64;
+	private static final int	KEY = 32;
+
+	// Offsets within the header, and within each slot.
+	private static final int	H_MAGIC = 0;
+	private static final int	H_SLOTS = 4;
+	private static final int	H_BYTES = 8;
+	private static final int	H_USED = 16;
+	private static final int	H_CLOCK = 24;
+	private static final int	S_SIZE = 32;
+	private static final int	S_USE = 40;
+	private static final int	S_STATE = 48;
+
+	private static final int	EMPTY = 0;
+	private static final int	USED = 1;
+
+	// One DiskCache per directory per JVM, as file locks are held per JVM.
+	private static final HashMap<Path, DiskCache> open = new HashMap<>();
+	private static byte[] fingerprint = null;
+
+	private final Path				dir;
+	private final long				maxBytes;
+	private final FileChannel		channel;
+	private final MappedByteBuffer	index;
+
+	private DiskCache(Path directory, long limit)
+			throws IOException
+	{
+		dir = directory;
+		maxBytes = limit;
+		Files.createDirectories(dir.resolve("objects"));
+
+		channel = FileChannel.open(dir.resolve("index"),
+				StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		FileLock lock = channel.lock();
+		try {
+			index = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER + (long) SLOTS * SLOT);
+			index.order(ByteOrder.LITTLE_ENDIAN);
+			if (index.getInt(H_MAGIC) != MAGIC || index.getInt(H_SLOTS) != SLOTS) {
+				// A new (or foreign) index; objects it does not know are orphans.
+				for (int i = 0; i < HEADER + SLOTS * SLOT; ++i) {
+					index.put(i, (byte) 0);
+				}
+				index.putInt(H_MAGIC, MAGIC);
+				index.putInt(H_SLOTS, SLOTS);
+			}
+		} finally {
+			lock.release();
+		}
+	}
+
+	// Open(..) method returns the cache in 'directory', creating it if need be.
+	public static DiskCache Open(String directory)
+			throws IOException
+	{
+		return Open(directory, DEFAULT_MAX_BYTES);
+	}
+
+	public static synchronized DiskCache Open(String directory, long maxBytes)
+			throws IOException
+	{
+		Path p = Paths.get(directory).toAbsolutePath().normalize();
+		DiskCache c = open.get(p);
+		if (c == null) {
+			c = new DiskCache(p, maxBytes);
+			open.put(p, c);
+		}
+		return c;
+	}
+
+	// Key(..) method digests a source along with the compiler and 'options',
+	//	into the hex key its output is stored under.
+	public static String Key(byte[] source, String options)
+			throws IOException
+	{
+		MessageDigest md = Digest();
+		md.update(Fingerprint());
+		md.update(options.getBytes(StandardCharsets.UTF_8));
+		md.update((byte) 0);
+		md.update(source);
+		return Hex(md.digest());
+	}
+
+	// Fetch(..) method puts the object stored under 'key' at 'out', returning
+	//	false if there is none.  The object is hard linked where possible.
+	public boolean Fetch(String key, Path out)
+			throws IOException
+	{
+		Path object = Object(key);
+		if (!Lookup(key, object)) {
+			return false;
+		}
+
+		// Link (or copy) to a temporary name, then move it over the output.
+		Path tmp = Scratch(out);
+		try {
+			Files.deleteIfExists(tmp);
+			try {
+				Files.createLink(tmp, object);
+			} catch (UnsupportedOperationException | FileSystemException e) {
+				Files.copy(object, tmp);
+			}
+			Replace(tmp, out);
+			return true;
+		} catch (NoSuchFileException e) {
+			// Evicted by someone else in the meantime.
+			return false;
+		} finally {
+			Files.deleteIfExists(tmp);
+		}
+	}
+
+	// Fetch(..) method returns the object stored under 'key' as text, or null
+	//	if there is none.
+	public String Fetch(String key)
+			throws IOException
+	{
+		Path object = Object(key);
+		if (!Lookup(key, object)) {
+			return null;
+		}
+		try {
+			return new String(Files.readAllBytes(object), Charset.defaultCharset());
+		} catch (NoSuchFileException e) {
+			// Evicted by someone else in the meantime.
+			return null;
+		}
+	}
+
+	// Lookup(..) method marks the object stored under 'key' as just used,
+	//	returning false if there is none.
+	private boolean Lookup(String key, Path object)
+			throws IOException
+	{
+		synchronized (this) {
+			FileLock lock = channel.lock();
+			try {
+				int slot = Find(key);
+				if (slot < 0 || index.getInt(SlotAt(slot) + S_STATE) != USED) {
+					return false;
+				}
+				if (!Files.exists(object)) {
+					Remove(slot);
+					return false;
+				}
+				Touch(slot);
+				return true;
+			} finally {
+				lock.release();
+			}
+		}
+	}
+
+	// Store(..) method stores a copy of the file 'masm' under 'key', evicting
+	//	the least recently used objects if the cache is over its bounds.
+	public void Store(String key, Path masm)
+			throws IOException
+	{
+		Path object = Object(key);
+		Files.createDirectories(object.getParent());
+
+		Path tmp = Scratch(object);
+		try {
+			Files.copy(masm, tmp, StandardCopyOption.REPLACE_EXISTING);
+			tmp.toFile().setReadOnly();
+			Replace(tmp, object);
+		} finally {
+			Files.deleteIfExists(tmp);
+		}
+		Insert(key, object);
+	}
+
+	// The MASM may also be stored straight from memory (see Compiler.Build(..)).
+	public void Store(String key, CharSequence masm)
+			throws IOException
+	{
+		Path object = Object(key);
+		Files.createDirectories(object.getParent());
+
+		Path tmp = Scratch(object);
+		try {
+			try (Writer w = Files.newBufferedWriter(tmp, Charset.defaultCharset())) {
+				w.append(masm);
+			}
+			tmp.toFile().setReadOnly();
+			Replace(tmp, object);
+		} finally {
+			Files.deleteIfExists(tmp);
+		}
+		Insert(key, object);
+	}
+
+	// Insert(..) method enters the stored 'object' into the index under 'key'.
+	private void Insert(String key, Path object)
+			throws IOException
+	{
+		long size = Files.size(object);
+
+		ArrayList<Path> evicted = new ArrayList<>();
+		synchronized (this) {
+			FileLock lock = channel.lock();
+			try {
+				int slot = Find(key);
+				if (slot < 0) {
+					slot = Free(key);
+				}
+				int at = SlotAt(slot);
+				if (index.getInt(at + S_STATE) == USED) {
+					index.putLong(H_BYTES, index.getLong(H_BYTES) - index.getLong(at + S_SIZE));
+				} else {
+					index.putLong(H_USED, index.getLong(H_USED) + 1);
+				}
+				for (int i = 0; i < KEY; ++i) {
+					int hi = Character.digit(key.charAt(2 * i), 16);
+					int lo = Character.digit(key.charAt(2 * i + 1), 16);
+					index.put(at + i, (byte) ((hi << 4) | lo));
+				}
+				index.putLong(at + S_SIZE, size);
+				index.putInt(at + S_STATE, USED);
+				index.putLong(H_BYTES, index.getLong(H_BYTES) + size);
+				Touch(slot);
+
+				// Removing an entry may shift the new one back, so find it afresh.
+				while (index.getLong(H_BYTES) > maxBytes || index.getLong(H_USED) > SLOTS / 2) {
+					int lru = LeastRecent(Find(key));
+					if (lru < 0) {
+						break;
+					}
+					evicted.add(Object(KeyAt(lru)));
+					Remove(lru);
+				}
+			} finally {
+				lock.release();
+			}
+		}
+		for (Path p : evicted) {
+			Files.deleteIfExists(p);
+		}
+	}
+
+	// Bytes(..) and Entries(..) methods return the size of the cache.
+	public synchronized long Bytes() {
+		return index.getLong(H_BYTES);
+	}
+
+	public synchronized long Entries() {
+		return index.getLong(H_USED);
+	}
+
+	// ---- Index ----
+
+	private static int SlotAt(int slot) {
+		return HEADER + slot * SLOT;
+	}
+
+	// Find(..) returns the slot holding 'key', or -1.
+	private int Find(String key) {
+		int home = Home(key);
+		for (int n = 0; n < SLOTS; ++n) {
+			int slot = (home + n) & (SLOTS - 1);
+			int state = index.getInt(SlotAt(slot) + S_STATE);
+			if (state == EMPTY) {
+				return -1;
+			}
+			if (state == USED && KeyAt(slot).equals(key)) {
+				return slot;
+			}
+		}
+		return -1;
+	}
+
+	// Free(..) returns the slot to insert 'key' at; the index is kept at
+	//	most half full, so there always is one.
+	private int Free(String key) {
+		int home = Home(key);
+		for (int n = 0; n < SLOTS; ++n) {
+			int slot = (home + n) & (SLOTS - 1);
+			if (index.getInt(SlotAt(slot) + S_STATE) != USED) {
+				return slot;
+			}
+		}
+		throw new IllegalStateException("DiskCache index is full.");
+	}
+
+	private static int Home(String key) {
+		return Integer.parseUnsignedInt(key.substring(0, 8), 16) & (SLOTS - 1);
+	}
+
+	private String KeyAt(int slot) {
+		byte[] k = new byte[KEY];
+		for (int i = 0; i < KEY; ++i) {
+			k[i] = index.get(SlotAt(slot) + i);
+		}
+		return Hex(k);
+	}
+
+	// Touch(..) marks a slot as the most recently used, by the index's clock.
+	private void Touch(int slot) {
+		long clock = index.getLong(H_CLOCK) + 1;
+		index.putLong(H_CLOCK, clock);
+		index.putLong(SlotAt(slot) + S_USE, clock);
+	}
+
+	// Remove(..) empties a slot, moving each later entry of its probe run
+	//	that may live there back into it, and so on into the slot it left.
+	//	No entry is then ever beyond an empty slot from its home.
+	private void Remove(int slot) {
+		int at = SlotAt(slot);
+		index.putLong(H_BYTES, index.getLong(H_BYTES) - index.getLong(at + S_SIZE));
+		index.putLong(H_USED, index.getLong(H_USED) - 1);
+
+		int hole = slot;
+		for (int next = (slot + 1) & (SLOTS - 1); next != slot; next = (next + 1) & (SLOTS - 1)) {
+			if (index.getInt(SlotAt(next) + S_STATE) == EMPTY) {
+				break;
+			}
+			if (((next - Home(KeyAt(next))) & (SLOTS - 1)) >= ((next - hole) & (SLOTS - 1))) {
+				byte[] entry = new byte[SLOT];
+				index.get(SlotAt(next), entry);
+				index.put(SlotAt(hole), entry);
+				hole = next;
+			}
+		}
+		index.put(SlotAt(hole), new byte[SLOT]);
+	}
+
+	// LeastRecent(..) returns the least recently used slot but 'keep', or -1.
+	private int LeastRecent(int keep) {
+		int lru = -1;
+		long oldest = Long.MAX_VALUE;
+		for (int slot = 0; slot < SLOTS; ++slot) {
+			int at = SlotAt(slot);
+			if (slot != keep && index.getInt(at + S_STATE) == USED && index.getLong(at + S_USE) < oldest) {
+				oldest = index.getLong(at + S_USE);
+				lru = slot;
+			}
+		}
+		return lru;
+	}
+
+	// ---- Files ----
+
+	private Path Object(String key) {
+		return dir.resolve("objects").resolve(key.substring(0, 2)).resolve(key.substring(2) + ".masm");
+	}
+
+	// Scratch(..) method returns a name beside 'p' to write it under, unique
+	//	to this process and thread.
+	static Path Scratch(Path p) {
+		return p.resolveSibling(p.getFileName() + "." + ProcessHandle.current().pid()
+				+ "-" + Thread.currentThread().getId() + ".tmp");
+	}
+
+	// Replace(..) method moves 'from' over 'to', atomically where the file system
+	//	allows it.
+	static void Replace(Path from, Path to)
+			throws IOException
+	{
+		try {
+			Files.move(from, to, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		} catch (AtomicMoveNotSupportedException e) {
+			Files.move(from, to, StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	// ---- Digests ----
+
+	private static MessageDigest Digest()
+			throws IOException
+	{
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IOException("SHA-256 is not available.");
+		}
+	}
+
+	// Fingerprint(..) method digests the class files of the compiler, so that
+	//	any change to the compiler invalidates everything it has cached.
+	private static synchronized byte[] Fingerprint()
+			throws IOException
+	{
+		if (fingerprint != null) {
+			return fingerprint;
+		}
+
+		MessageDigest md = Digest();
+		try {
+			URI home = DiskCache.class.getProtectionDomain().getCodeSource().getLocation().toURI();
+			Path p = Paths.get(home);
+			if (Files.isDirectory(p)) {
+				ArrayList<Path> classes = new ArrayList<>();
+				try (Stream<Path> list = Files.list(p)) {
+					list.filter(f -> f.toString().endsWith(".class")).sorted().forEach(classes::add);
+				}
+				for (Path c : classes) {
+					md.update(c.getFileName().toString().getBytes(StandardCharsets.UTF_8));
+					md.update(Files.readAllBytes(c));
+				}
+			} else {
+				md.update(Files.readAllBytes(p));
+			}
+		} catch (Exception e) {
+			// Without the class files, fall back on the class of this cache.
+			try (InputStream in = DiskCache.class.getResourceAsStream("DiskCache.class")) {
+				if (in == null) {
+					throw new IOException("Cannot fingerprint the compiler.");
+				}
+				md.update(in.readAllBytes());
+			}
+		}
+		fingerprint = md.digest();
+		return fingerprint;
+	}
+
+	private static String Hex(byte[] bytes) {
+		StringBuilder sb = new StringBuilder(2 * bytes.length);
+		for (byte b : bytes) {
+			sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+		}
+		return sb.toString();
+	}
+}
@@ -0,0 +1,513 @@
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.zip.InflaterInputStream;
+
+// Driver class implements the '--emit-mexe' and '--run' modes of the Compiler,
+//	which take a .nm source all the way to a .mexe (and optionally run it)
+//	without starting another JVM.  The bundled morpho.jar is loaded into this
+//	JVM, its assembler (cmorpho.mexe) is run on the generated MASM, and the
+//	resulting .mexe is run on a morpho Machine of our own.
+// Usage:
+//	Compiler --emit-mexe [--keep-masm] _source_.nm
+//		Produces _source_.mexe (and _source_.masm if asked for).
+//	Compiler --run [--keep-masm] [--emit-mexe] _source_.nm [args ..]
+//		Runs the program; no .mexe is left behind unless asked for.
+//	Either takes --no-peephole to leave the MASM unoptimized (see Peephole),
+//	and --cache _dir_ to reuse earlier compilations (see DiskCache).
+// NOTE: The MASM is handed to the morpho assembler in memory, as its standard
+//	input, unless --keep-masm asks for a .masm file.  Both the assembler and
+//	morpho programs end by calling the EXIT builtin, which would call
+//	System.exit(..); morpho.jar is loaded by a MorphoLoader of our own that
+//	redirects that one call to Exit(..), which stops the morpho Machine
+//	instead.  Where morpho cannot be loaded so, the Driver falls back to
+//	running morpho.jar in child JVMs, as the makefile does.
+public class Driver {
+
+	// Run(..) method handles the driver options starting at args[first],
+	//	returning the exit status of the compilation or of the program run.
+	public static int Run(String[] args, int first) {
+		boolean	run = false;
+		boolean	mexe = false;
+		boolean	masm = false;
+		boolean	optimize = true;
+		String	cacheDir = null;
+		int		i = first;
+
+		for (; i < args.length && args[i].startsWith("--"); ++i) {
+			if (args[i].equals("--run")) {
+				run = true;
+			} else if (args[i].equals("--emit-mexe")) {
+				mexe = true;
+			} else if (args[i].equals("--keep-masm")) {
+				masm = true;
+			} else if (args[i].equals("--no-peephole")) {
+				optimize = false;
+			} else if (args[i].equals("--cache") && i + 1 < args.length) {
+				cacheDir = args[++i];
+			} else {
+				System.out.println("Unknown option " + args[i]);
+				return 1;
+			}
+		}
+		if (i >= args.length || !args[i].endsWith(".nm")) {
+			System.out.println("Compiler " + args[first] + " requires an input file; [options] [input file].nm");
+			return 1;
+		}
+
+		String		source = args[i];
+		String[]	programArgs = new String[args.length - i - 1];
+		System.arraycopy(args, i + 1, programArgs, 0, programArgs.length);
+
+		// The program is named after its source; a .mexe that is only run is
+		//	written to a scratch directory instead.
+		File		scratch = null;
+		String		target = source.substring(0, source.length() - ".nm".length());
+
+		try {
+			scratch = Files.createTempDirectory("nm").toFile();
+			if (!mexe) {
+				target = new File(scratch, new File(target).getName()).getPath();
+			}
+			String masmFile = target + ".masm";
+
+			Compiler c = new Compiler(source, masmFile, System.out, target);
+			c.Optimize(optimize);
+			if (cacheDir != null) {
+				c.Cache(DiskCache.Open(cacheDir));
+			}
+			StringBuilder text = (masm ? null : new StringBuilder());
+			if (!c.Build(text)) {
+				return 1;
+			}
+
+			int status = (masm ? Assemble(masmFile) : Assemble(text));
+			if (status != 0 || !new File(target + ".mexe").exists()) {
+				System.out.println("Failed to assemble " + (masm ? masmFile : source));
+				return (status != 0 ? status : 1);
+			}
+
+			return (run ? Execute(target, programArgs) : 0);
+		} catch (IOException e) {
+			System.out.println("Failed to construct compiler.");
+			System.out.println(e.getMessage());
+			return 1;
+		} catch (IllegalArgumentException e) {
+			System.out.println("Invalid argument.");
+			System.out.println(e.getMessage());
+			return 1;
+		} finally {
+			if (scratch != null) {
+				File[] files = scratch.listFiles();
+				if (files != null) {
+					for (File f : files) {
+						f.delete();
+					}
+				}
+				scratch.delete();
+			}
+		}
+	}
+
+	// Assemble(..) method runs the morpho assembler on a .masm file.
+	public static int Assemble(String masm)
+			throws IOException
+	{
+		return Assembler(new String[]{"-c", masm}, null);
+	}
+
+	// The MASM may also be given as text, which the assembler reads from its
+	//	standard input; nothing is written to disk but the .mexe.
+	public static int Assemble(StringBuilder masm)
+			throws IOException
+	{
+		return Assembler(new String[]{"-c"}, masm.toString().getBytes(Charset.defaultCharset()));
+	}
+
+	private static int Assembler(String[] args, byte[] input)
+			throws IOException
+	{
+		if (!Morpho()) {
+			return Launch(args, input);
+		}
+		InputStream stdin = System.in;
+		try (InputStream asm = morpho.getResourceAsStream("cmorpho.mexe")) {
+			if (asm == null) {
+				throw new IOException("cmorpho.mexe not found in morpho.jar");
+			}
+			if (input != null) {
+				System.setIn(new ByteArrayInputStream(input));
+			}
+			return Machine(asm, args);
+		} finally {
+			System.setIn(stdin);
+		}
+	}
+
+	// Execute(..) method runs a morpho program, 'target' naming the .mexe
+	//	without its extension, just as 'java -jar morpho.jar target' would.
+	public static int Execute(String target, String[] args)
+			throws IOException
+	{
+		String[] argv = new String[args.length + 1];
+		argv[0] = target;
+		System.arraycopy(args, 0, argv, 1, args.length);
+		if (!Morpho()) {
+			return Launch(argv, null);
+		}
+		try (InputStream in = new FileInputStream(target + ".mexe")) {
+			return Machine(in, argv);
+		}
+	}
+
+	// ---- In-process morpho ----
+
+	private static ClassLoader	morpho = null;
+	private static boolean		loaded = false;
+	private static int			killMachine;
+	private static int			status;
+	private static Field		taskStatus;
+	private static Field		taskExceptional;
+	private static Method		taskMachine;
+	private static Method		machineKill;
+
+	// Morpho(..) method loads morpho.jar the first time it is called.  Returns
+	//	false if morpho cannot run in this JVM.
+	private static synchronized boolean Morpho() {
+		if (loaded) {
+			return (morpho != null);
+		}
+		loaded = true;
+		try {
+			MorphoLoader cl = new MorphoLoader(Jar().toURI().toURL(), Driver.class.getClassLoader());
+			Method register = cl.loadClass("is.hi.cs.morpho.Loader").getDeclaredMethod("registerOps");
+			register.setAccessible(true);
+			register.invoke(null);
+			Class<?> builtins = Class.forName("is.hi.cs.morpho.Builtins", true, cl);
+			killMachine = builtins.getField("KILLMACHINE").getInt(null);
+			if (!cl.redirected) {
+				// The EXIT builtin would end this JVM.
+				return false;
+			}
+			Class<?> taskClass = cl.loadClass("is.hi.cs.morpho.Task");
+			taskStatus = taskClass.getField("ac");
+			taskExceptional = taskClass.getField("exceptional");
+			taskMachine = taskClass.getMethod("getMachine");
+			machineKill = cl.loadClass("is.hi.cs.morpho.Machine").getMethod("kill");
+
+			morpho = cl;
+			return true;
+		} catch (ReflectiveOperationException | IOException | RuntimeException | LinkageError e) {
+			return false;
+		}
+	}
+
+	// Machine(..) method loads a .mexe image and runs it to completion on a
+	//	single-threaded morpho Machine, returning the exit status.  This
+	//	mirrors the loading done by is.hi.cs.morpho.Morpho.main(..).
+	private static synchronized int Machine(InputStream image, String[] args)
+			throws IOException
+	{
+		try {
+			Class<?> loaderClass = morpho.loadClass("is.hi.cs.morpho.Loader");
+			Class<?> opClass = morpho.loadClass("is.hi.cs.morpho.Operation");
+			Class<?> debugClass = morpho.loadClass("is.hi.cs.morpho.DebugInfo");
+			Class<?> machineClass = morpho.loadClass("is.hi.cs.morpho.Machine");
+
+			DataInputStream in = new DataInputStream(new InflaterInputStream(image));
+			Object loader = loaderClass.getConstructor(DataInput.class).newInstance(in);
+			Method loadInt = loaderClass.getMethod("loadInt");
+			Method loadByte = loaderClass.getMethod("loadByte");
+			Method loadOperation = loaderClass.getMethod("loadOperation");
+
+			if ((Integer) loadInt.invoke(loader) != 1234567891
+					|| !"Morpho".equals(loaderClass.getMethod("loadString").invoke(loader))
+					|| (Integer) loadInt.invoke(loader) != 2
+					|| (Integer) loadInt.invoke(loader) != 0
+					|| (Integer) loadInt.invoke(loader) != 0) {
+				throw new IOException("Invalid Morpho executable file");
+			}
+
+			int entry = (Integer) loadInt.invoke(loader);
+			int count = (Integer) loadInt.invoke(loader);
+			Object ops = Array.newInstance(opClass, count);
+			for (int i = 0; i < count; ++i) {
+				if ((Byte) loadByte.invoke(loader) == -128) {
+					Array.set(ops, i, loadOperation.invoke(loader));
+				} else {
+					Array.set(ops, i, Array.get(ops, (Integer) loadInt.invoke(loader)));
+				}
+			}
+			Object debug = debugClass.getConstructor().newInstance();
+			try {
+				debugClass.getMethod("load", loaderClass).invoke(debug, loader);
+			} catch (InvocationTargetException e) {
+				// Debug information is optional.
+			}
+			machineClass.getMethod("setDebugInfo", ops.getClass(), debugClass).invoke(null, ops, debug);
+
+			Object machine = machineClass.getConstructor(ops.getClass(), int.class).newInstance(ops, entry);
+			machineClass.getField("args").set(machine, args);
+
+			status = 0;
+			try {
+				machineClass.getMethod("run", int.class).invoke(machine, 1);
+			} catch (InvocationTargetException e) {
+				throw new IOException("morpho: " + e.getCause());
+			}
+			return status;
+		} catch (ReflectiveOperationException e) {
+			throw new IOException("morpho: " + e);
+		}
+	}
+
+	// Exit(..) method is called by morpho's EXIT builtin in place of
+	//	System.exit(..) (see MorphoLoader), with the task calling it.  The
+	//	status is the builtin's argument, still in the task's accumulator.
+	//	The task is marked to stop once this operation is done, just as the
+	//	KILLMACHINE builtin marks it, and its Machine is killed outright, for
+	//	an EXIT in tail position returns from the task before the mark is seen.
+	public static void Exit(Object task)
+			throws ReflectiveOperationException
+	{
+		Object s = taskStatus.get(task);
+		status = (s instanceof Number ? ((Number) s).intValue() : 1);
+		taskExceptional.setInt(task, killMachine);
+		machineKill.invoke(taskMachine.invoke(task));
+	}
+
+	// MorphoLoader class loads the classes of morpho.jar itself, ahead of any
+	//	copy on the class path, so that the EXIT builtin can be redirected
+	//	as it is loaded (see Redirect(..)).
+	private static class MorphoLoader extends URLClassLoader {
+		boolean redirected = false;
+
+		MorphoLoader(URL jar, ClassLoader parent) {
+			super(new URL[]{ jar }, parent);
+		}
+
+		@Override
+		protected Class<?> loadClass(String name, boolean resolve)
+				throws ClassNotFoundException
+		{
+			if (!name.startsWith("is.hi.cs.morpho.")) {
+				return super.loadClass(name, resolve);
+			}
+			synchronized (getClassLoadingLock(name)) {
+				Class<?> c = findLoadedClass(name);
+				if (c == null) {
+					c = findClass(name);
+				}
+				if (resolve) {
+					resolveClass(c);
+				}
+				return c;
+			}
+		}
+
+		@Override
+		protected Class<?> findClass(String name)
+				throws ClassNotFoundException
+		{
+			String path = name.replace('.', '/') + ".class";
+			URL url = findResource(path);
+			if (url == null) {
+				url = getParent().getResource(path);
+			}
+			if (url == null) {
+				throw new ClassNotFoundException(name);
+			}
+			try (InputStream in = url.openStream()) {
+				byte[] b = in.readAllBytes();
+				byte[] r = Redirect(b);
+				if (r != null) {
+					redirected = true;
+					b = r;
+				}
+				return defineClass(name, b, 0, b.length);
+			} catch (IOException e) {
+				throw new ClassNotFoundException(name, e);
+			}
+		}
+	}
+
+	// Redirect(..) method returns the class file 'b' with its call
+	//	System.exit(status) replaced by Driver.Exit(task), or null if it is
+	//	not the EXIT builtin: a Builtins$Op whose preExecute(task) loads the
+	//	status from an int local just before calling System.exit(..).  The
+	//	load becomes 'aload_1', the task, so no offset in the code moves; the
+	//	constants naming Driver.Exit(..) are appended to the constant pool.
+	static byte[] Redirect(byte[] b) {
+		int		count = U2(b, 8);
+		int[]	at = new int[count];
+		int		p = 10;
+
+		for (int i = 1; i < count; ++i) {
+			at[i] = p;
+			switch (b[p]) {
+			case 1:								// Utf8
+				p += 3 + U2(b, p + 1);
+				break;
+			case 3: case 4: case 9: case 10:	// Integer, Float, Fieldref, Methodref,
+			case 11: case 12: case 17: case 18:	//	Interface method, NameAndType, Dynamic
+				p += 5;
+				break;
+			case 5: case 6:						// Long and Double take two entries
+				p += 9;
+				++i;
+				break;
+			case 7: case 8: case 16: case 19: case 20:
+				p += 3;
+				break;
+			case 15:							// MethodHandle
+				p += 4;
+				break;
+			default:
+				return null;
+			}
+		}
+		int end = p;
+
+		if (!"is/hi/cs/morpho/Builtins$Op".equals(Utf8(b, at, U2(b, at[U2(b, end + 4)] + 1)))) {
+			return null;
+		}
+		int exit = 0;
+		for (int i = 1; i < count; ++i) {
+			if (at[i] != 0 && b[at[i]] == 10) {
+				int nat = at[U2(b, at[i] + 3)];
+				if ("java/lang/System".equals(Utf8(b, at, U2(b, at[U2(b, at[i] + 1)] + 1)))
+						&& "exit".equals(Utf8(b, at, U2(b, nat + 1)))
+						&& "(I)V".equals(Utf8(b, at, U2(b, nat + 3)))) {
+					exit = i;
+				}
+			}
+		}
+		int call = -1;
+		for (int q = end + 1; exit != 0 && q + 2 < b.length; ++q) {
+			if (b[q] == (byte) 0xB8 && U2(b, q + 1) == exit && b[q - 1] >= 0x1A && b[q - 1] <= 0x1D) {
+				if (call >= 0) {
+					return null;
+				}
+				call = q;
+			}
+		}
+		if (call < 0) {
+			return null;
+		}
+
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream(b.length + 64);
+			DataOutputStream out = new DataOutputStream(bytes);
+			out.write(b, 0, 8);
+			out.writeShort(count + 6);
+			out.write(b, 10, end - 10);
+			out.writeByte(1);
+			out.writeUTF(Driver.class.getName().replace('.', '/'));
+			out.writeByte(7);
+			out.writeShort(count);
+			out.writeByte(1);
+			out.writeUTF("Exit");
+			out.writeByte(1);
+			out.writeUTF("(Ljava/lang/Object;)V");
+			out.writeByte(12);
+			out.writeShort(count + 2);
+			out.writeShort(count + 3);
+			out.writeByte(10);
+			out.writeShort(count + 1);
+			out.writeShort(count + 4);
+			int moved = bytes.size() - end;
+			out.write(b, end, b.length - end);
+
+			byte[] r = bytes.toByteArray();
+			r[moved + call - 1] = 0x2B;
+			r[moved + call + 1] = (byte) ((count + 5) >> 8);
+			r[moved + call + 2] = (byte) (count + 5);
+			return r;
+		} catch (IOException e) {
+			return null;
+		}
+	}
+
+	private static int U2(byte[] b, int p) {
+		return ((b[p] & 0xFF) << 8) | (b[p + 1] & 0xFF);
+	}
+
+	private static String Utf8(byte[] b, int[] at, int i) {
+		if (i <= 0 || i >= at.length || b[at[i]] != 1) {
+			return null;
+		}
+		try {
+			return new DataInputStream(new ByteArrayInputStream(b, at[i] + 1, U2(b, at[i] + 1) + 2)).readUTF();
+		} catch (IOException e) {
+			return null;
+		}
+	}
+
+	// ---- Child JVM fallback ----
+
+	// Jar(..) method locates morpho.jar; the 'morpho.jar' system property
+	//	wins, then the working directory, then the directory of the compiler.
+	private static File Jar() {
+		String jar = System.getProperty("morpho.jar");
+		if (jar != null) {
+			return new File(jar);
+		}
+		File local = new File("morpho.jar");
+		if (!local.exists()) {
+			try {
+				File home = new File(Driver.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+				if (new File(home, "morpho.jar").exists()) {
+					return new File(home, "morpho.jar");
+				}
+			} catch (Exception e) {
+				// Fall through to the working directory.
+			}
+		}
+		return local;
+	}
+
+	// Launch(..) method runs 'java -jar morpho.jar args ..', feeding it
+	//	'input' as its standard input if given.
+	private static int Launch(String[] args, byte[] input)
+			throws IOException
+	{
+		String[] cmd = new String[3 + args.length];
+		cmd[0] = new File(new File(System.getProperty("java.home"), "bin"), "java").getPath();
+		cmd[1] = "-jar";
+		cmd[2] = Jar().getPath();
+		System.arraycopy(args, 0, cmd, 3, args.length);
+
+		ProcessBuilder pb = new ProcessBuilder(cmd).inheritIO();
+		if (input != null) {
+			pb.redirectInput(ProcessBuilder.Redirect.PIPE);
+		}
+		try {
+			Process p = pb.start();
+			if (input != null) {
+				try (OutputStream in = p.getOutputStream()) {
+					in.write(input);
+				}
+			}
+			return p.waitFor();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted running morpho.jar");
+		}
+	}
+}
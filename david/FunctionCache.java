@@ -0,0 +1,61 @@
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// FunctionCache class holds the final MASM of functions already compiled,
+//	keyed by a hash of each function's token stream (see Compiler.Record(..)).
+//	A Compiler given a FunctionCache looks every function up before parsing
+//	it; a function that has not changed since it was last compiled is not
+//	parsed or generated again, and its MASM block is spliced in as it was.
+// This works because the MASM of a function depends on nothing but its own
+//	tokens: it has a label namespace of its own (see MasmWriter), and its
+//	calls name other functions rather than their addresses.
+// One FunctionCache may be shared by any number of compilations, at once or
+//	one after another.  The least recently used blocks are dropped once it
+//	holds more than its capacity.
+public class FunctionCache {
+
+	public static final int DEFAULT_CAPACITY = 100000;
+
+	// Entry class is a cached block, along with the time it took to parse and
+	//	generate it -- the time saved each time it is reused.
+	public static class Entry {
+		public final String		block;
+		public final long		nanos;
+
+		public Entry(String masm, long cost) {
+			block = masm;
+			nanos = cost;
+		}
+	}
+
+	private final LinkedHashMap<String, Entry>	blocks;
+	private final int							capacity;
+
+	public FunctionCache() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	public FunctionCache(int maxEntries) {
+		capacity = maxEntries;
+		blocks = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+				return size() > capacity;
+			}
+		};
+	}
+
+	// Get(..) method returns the cached block for 'key', or NULL.
+	public synchronized Entry Get(String key) {
+		return blocks.get(key);
+	}
+
+	public synchronized void Put(String key, Entry entry) {
+		blocks.put(key, entry);
+	}
+
+	public synchronized int Size() {
+		return blocks.size();
+	}
+}
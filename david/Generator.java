@@ -0,0 +1,340 @@
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Random;
+
+// Generator class writes synthetic, valid SubMorpho programs (see the EBNF
+//	at the head of Compiler.java) of a tunable shape, for scaling tests of the
+//	compiler.  Usage:
+//	java -cp . Generator [options] [output.nm]
+//		--functions N	number of functions besides main			(10)
+//		--params N		parameters per function						(2)
+//		--locals N		declared locals per function				(2)
+//		--statements N	assignments per function					(4)
+//		--depth N		depth of each assigned expression			(3)
+//		--elseif N		'elseif' arms per branch, 0 for no branch	(2)
+//		--loops N		nesting depth of the loop in each function	(1)
+//		--fanout N		calls each function makes to others			(2)
+//		--sum N			terms in one extra flat sum, 0 for none		(0)
+//		--chain N		terms in one extra chain of &&s, 0 for none	(0)
+//		--seed N		seed for the random choices					(1)
+//		--preset NAME	sum100k, chain100k, elseif10k or functions50k
+//	Without an output file the program is written to standard out.
+// The generated programs terminate when run: every loop counts to 3, and the
+//	calls form a tree (function i calls functions i*fanout+1 ..), so each
+//	function is called exactly once.  Divisions are by non-zero literals.
+public class Generator {
+	public int		functions = 10;
+	public int		params = 2;
+	public int		locals = 2;
+	public int		statements = 4;
+	public int		depth = 3;
+	public int		elseif = 2;
+	public int		loops = 1;
+	public int		fanout = 2;
+	public int		sum = 0;
+	public int		chain = 0;
+	public long		seed = 1;
+
+	private Random	random;
+	private boolean	inMain;
+
+	public static void main(String[] args)
+			throws IOException
+	{
+		Generator g = new Generator();
+		String out = null;
+
+		for (int i = 0; i < args.length; ++i) {
+			if (!args[i].startsWith("--")) {
+				out = args[i];
+			} else if (i + 1 >= args.length) {
+				System.err.println("Missing value for " + args[i]);
+				System.exit(1);
+			} else if (!g.Option(args[i], args[++i])) {
+				System.err.println("Unknown option " + args[i - 1] + " " + args[i]);
+				System.exit(1);
+			}
+		}
+
+		try (Writer w = new BufferedWriter(out == null ? new OutputStreamWriter(System.out) : new FileWriter(out))) {
+			g.Write(w);
+		}
+	}
+
+	// Option(..) method applies one command line option, returning false if
+	//	it is not recognized.
+	public boolean Option(String name, String value) {
+		if (name.equals("--preset")) {
+			return Preset(value);
+		}
+
+		int n = Integer.parseInt(value);
+		switch (name) {
+			case "--functions":		functions = n; break;
+			case "--params":		params = n; break;
+			case "--locals":		locals = n; break;
+			case "--statements":	statements = n; break;
+			case "--depth":			depth = n; break;
+			case "--elseif":		elseif = n; break;
+			case "--loops":			loops = n; break;
+			case "--fanout":		fanout = n; break;
+			case "--sum":			sum = n; break;
+			case "--chain":			chain = n; break;
+			case "--seed":			seed = n; break;
+			default:				return false;
+		}
+		return true;
+	}
+
+	// Preset(..) method selects one of the stress shapes.
+	public boolean Preset(String name) {
+		switch (name) {
+			case "sum100k":
+				functions = 0;
+				sum = 100000;
+				return true;
+			case "chain100k":
+				functions = 0;
+				chain = 100000;
+				return true;
+			case "elseif10k":
+				functions = 1;
+				elseif = 10000;
+				return true;
+			case "functions50k":
+				functions = 50000;
+				return true;
+			default:
+				return false;
+		}
+	}
+
+	// Write(..) method writes the whole program.
+	public void Write(Appendable out)
+			throws IOException
+	{
+		random = new Random(seed);
+		inMain = true;
+
+		// main() calls the root of the call tree, and sums up the extra
+		//	flat sum if there is one.
+		out.append("main() {\n");
+		if (sum > 0) {
+			out.append("    var s;\n");
+			out.append("    s = 0");
+			for (int i = 1; i < sum; ++i) {
+				out.append(" + ").append(Integer.toString(i % 1000));
+			}
+			out.append(";\n");
+			out.append("    println(s);\n");
+		}
+		if (chain > 0) {
+			// Every term of the chain is true, so all of them are evaluated;
+			//	they compare a variable, so none of them is folded.
+			out.append("    var t;\n");
+			out.append("    t = 0;\n");
+			out.append("    println(");
+			for (int i = 0; i < chain; ++i) {
+				out.append(i > 0 ? " && " : "").append("t < ").append(Integer.toString(i % 1000 + 1));
+			}
+			out.append(");\n");
+		}
+		if (functions > 0) {
+			out.append("    println(");
+			Call(out, 0);
+			out.append(");\n");
+		}
+		out.append("    return 0;\n");
+		out.append("}\n");
+		inMain = false;
+
+		for (int i = 0; i < functions; ++i) {
+			Function(out, i);
+		}
+	}
+
+	private void Function(Appendable out, int index)
+			throws IOException
+	{
+		out.append("\nf").append(Integer.toString(index)).append("(");
+		for (int p = 0; p < params; ++p) {
+			out.append(p > 0 ? ", " : "").append("p").append(Integer.toString(p));
+		}
+		out.append(") {\n");
+
+		// Locals are v0 .. vN, loop counters are c0 .. cN.
+		if (locals > 0) {
+			out.append("    var ");
+			for (int v = 0; v < locals; ++v) {
+				out.append(v > 0 ? ", " : "").append("v").append(Integer.toString(v));
+			}
+			out.append(";\n");
+		}
+		if (loops > 0) {
+			out.append("    var ");
+			for (int c = 0; c < loops; ++c) {
+				out.append(c > 0 ? ", " : "").append("c").append(Integer.toString(c));
+			}
+			out.append(";\n");
+		}
+
+		for (int v = 0; v < locals; ++v) {
+			out.append("    v").append(Integer.toString(v)).append(" = ")
+				.append(Integer.toString(random.nextInt(10))).append(";\n");
+		}
+		for (int s = 0; s < statements; ++s) {
+			out.append("    ");
+			Assign(out);
+			out.append(";\n");
+		}
+
+		// Calls to this function's children in the call tree.
+		for (int k = 1; k <= fanout; ++k) {
+			long child = (long) index * fanout + k;
+			if (child < functions && locals > 0) {
+				out.append("    v").append(Integer.toString(random.nextInt(locals))).append(" = ");
+				Call(out, (int) child);
+				out.append(";\n");
+			}
+		}
+
+		if (loops > 0) {
+			Loop(out, 0, "    ");
+		}
+		if (elseif > 0) {
+			Branch(out);
+		}
+
+		out.append("    return ");
+		Expr(out, depth);
+		out.append(";\n}\n");
+	}
+
+	// Loop(..) writes 'loops' nested while loops, each counting to 3.
+	private void Loop(Appendable out, int level, String indent)
+			throws IOException
+	{
+		String c = "c" + Integer.toString(level);
+		out.append(indent).append(c).append(" = 0;\n");
+		out.append(indent).append("while (").append(c).append(" < 3) {\n");
+		if (level + 1 < loops) {
+			Loop(out, level + 1, indent + "    ");
+		}
+		if (locals > 0) {
+			out.append(indent).append("    ");
+			Assign(out);
+			out.append(";\n");
+		}
+		out.append(indent).append("    ++").append(c).append(";\n");
+		out.append(indent).append("};\n");
+	}
+
+	// Branch(..) writes an if / elseif .. / else chain over one variable.
+	private void Branch(Appendable out)
+			throws IOException
+	{
+		String s = Name();
+		for (int arm = 0; arm <= elseif; ++arm) {
+			out.append(arm == 0 ? "    if (" : " elseif (");
+			out.append(s).append(" == ").append(Integer.toString(arm)).append(") {\n");
+			out.append("        ");
+			if (locals > 0) {
+				Assign(out);
+			} else {
+				Expr(out, 1);
+			}
+			out.append(";\n    }");
+		}
+		out.append(" else {\n        ");
+		Condition(out);
+		out.append(";\n    };\n");
+	}
+
+	private void Assign(Appendable out)
+			throws IOException
+	{
+		if (locals == 0) {
+			Expr(out, depth);
+			return;
+		}
+		out.append("v").append(Integer.toString(random.nextInt(locals))).append(" = ");
+		Expr(out, depth);
+	}
+
+	private void Call(Appendable out, int index)
+			throws IOException
+	{
+		out.append("f").append(Integer.toString(index)).append("(");
+		for (int p = 0; p < params; ++p) {
+			out.append(p > 0 ? ", " : "");
+			Expr(out, 1);
+		}
+		out.append(")");
+	}
+
+	// Condition(..) writes a short-circuit condition of comparisons.
+	private void Condition(Appendable out)
+			throws IOException
+	{
+		String[] logic = { " && ", " || " };
+		String[] cmp = { " < ", " <= ", " == ", " != ", " > ", " >= " };
+		int terms = 1 + random.nextInt(3);
+		for (int t = 0; t < terms; ++t) {
+			if (t > 0) {
+				out.append(logic[random.nextInt(logic.length)]);
+			}
+			if (random.nextInt(4) == 0) {
+				out.append("!");
+			}
+			Expr(out, 1);
+			out.append(cmp[random.nextInt(cmp.length)]);
+			Expr(out, 1);
+		}
+	}
+
+	// Expr(..) writes an arithmetic expression of the given depth.
+	private void Expr(Appendable out, int d)
+			throws IOException
+	{
+		if (d <= 0) {
+			switch (random.nextInt(3)) {
+				case 0:		out.append(Integer.toString(random.nextInt(100))); break;
+				case 1:		out.append("-").append(Name()); break;
+				default:	out.append(Name()); break;
+			}
+			return;
+		}
+
+		out.append("(");
+		Expr(out, d - 1);
+		switch (random.nextInt(4)) {
+			case 0:		out.append(" + "); break;
+			case 1:		out.append(" - "); break;
+			case 2:		out.append(" * "); break;
+			default:
+				// Only ever divide by a non-zero literal.
+				out.append(" / ").append(Integer.toString(1 + random.nextInt(9))).append(")");
+				return;
+		}
+		Expr(out, d - 1);
+		out.append(")");
+	}
+
+	// Name(..) returns a random parameter or local of the current function
+	//	(main has none of either, so there it returns a literal).
+	private String Name() {
+		int n = random.nextInt(Math.max(params + locals, 1));
+		if (inMain) {
+			return Integer.toString(n);
+		} else if (n < params) {
+			return "p" + Integer.toString(n);
+		} else if (locals > 0) {
+			return "v" + Integer.toString(n - params);
+		}
+		return Integer.toString(n);
+	}
+}
@@ -0,0 +1,201 @@
+
+import java.io.IOException;
+import java.util.ArrayList;
+
+// MasmWriter class is the sink into which TreeCodes write their final code.
+//	Every TreeCode in a program streams its MASM lines straight into one
+//	shared MasmWriter, rather than returning an array of lines that its
+//	parent then has to copy, so the total work done during final code
+//	generation is linear in the size of the output.
+// The underlying Appendable should be buffered (a BufferedWriter or a
+//	StringBuilder) -- each line is written as a handful of small appends.
+// Each MasmWriter also owns the label counter for the code written into it.
+// A MasmWriter given a Peephole optimizer holds back the lines of each
+//	function body (see Begin(..) and End(..)), and writes them out once they
+//	have been optimized.
+// Each MasmWriter counts the lines it writes and the labels it makes, for
+//	Metrics; spliced blocks are counted too only once Count(..) is set.
+public class MasmWriter {
+	private final Appendable	out;
+	private final Peephole		peephole;
+	private ArrayList<String>	block;
+	private ArrayList<String>	spare;
+	private String				prefix;
+	private int					lCounter;
+	private int					lines;
+	private int					labels;
+	private boolean				counting;
+
+	public MasmWriter(Appendable sink) {
+		this(sink, null);
+	}
+
+	public MasmWriter(Appendable sink, Peephole optimizer) {
+		out = sink;
+		peephole = optimizer;
+		block = null;
+		spare = null;
+		prefix = "_tcl";
+		lCounter = 0;
+		lines = 0;
+		labels = 0;
+		counting = false;
+	}
+
+	// Fork(..) method returns a writer into another sink that optimizes just
+	//	as this one does, e.g. for a function generated on another thread.
+	public MasmWriter Fork(Appendable sink) {
+		MasmWriter w = new MasmWriter(sink, peephole);
+		w.counting = counting;
+		return w;
+	}
+
+	// Count(..) method has spliced blocks counted as well, and Lines(..) and
+	//	Labels(..) methods return the lines written and labels made so far.
+	public void Count(boolean on) {
+		counting = on;
+	}
+
+	public int Lines() {
+		return lines;
+	}
+
+	public int Labels() {
+		return labels;
+	}
+
+	// Begin(..) method starts a function body.  The lines written until the
+	//	matching End(..) are optimized together.
+	public void Begin() {
+		if (peephole != null) {
+			block = (spare != null ? spare : new ArrayList<>(256));
+			spare = null;
+		}
+	}
+
+	public void End()
+			throws CompilerError
+	{
+		if (block != null) {
+			ArrayList<String> code = peephole.Optimize(block);
+			spare = block;
+			spare.clear();
+			block = null;
+			for (String line : code) {
+				Emit(line);
+			}
+		}
+	}
+
+	// NewLabel(..) method generates a label that is unique within the code
+	//	written to this MasmWriter, or within the current label scope.
+	public String NewLabel() {
+		++labels;
+		return prefix + Integer.toString(lCounter++);
+	}
+
+	// LabelScope(..) method starts a fresh label namespace.  Labels are
+	//	global to a morpho module, so 'scope' must be unique in the program;
+	//	every label generated afterwards depends only on 'scope' and on the
+	//	code generated since, never on anything else in the file.
+	public void LabelScope(String scope) {
+		prefix = "_tcl_" + scope + "_";
+		lCounter = 0;
+	}
+
+	// Splice(..) method appends a block of already generated MASM lines
+	//	verbatim, e.g. code generated into a separate writer.
+	public void Splice(CharSequence block)
+			throws CompilerError
+	{
+		if (counting) {
+			for (int i = 0; i < block.length(); ++i) {
+				if (block.charAt(i) == '\n') {
+					++lines;
+				}
+			}
+		}
+		try {
+			out.append(block);
+		} catch (IOException e) {
+			throw new FatalError("IOException writing MASM: " + e.getMessage());
+		}
+	}
+
+	// Splice(..) method appends the block generated into the writer 'from'
+	//	(see Fork(..)), counting its lines and labels as this writer's own.
+	public void Splice(CharSequence block, MasmWriter from)
+			throws CompilerError
+	{
+		try {
+			out.append(block);
+		} catch (IOException e) {
+			throw new FatalError("IOException writing MASM: " + e.getMessage());
+		}
+		lines += from.lines;
+		labels += from.labels;
+	}
+
+	// Emit(..) methods write a single line of MASM, terminated by '\n'.  The
+	//	multi-part overloads save the caller from concatenating the pieces
+	//	of a line into a temporary string first.
+	public void Emit(String line)
+			throws CompilerError
+	{
+		if (block != null) {
+			block.add(line);
+			return;
+		}
+		++lines;
+		try {
+			out.append(line).append('\n');
+		} catch (IOException e) {
+			throw new FatalError("IOException writing MASM: " + e.getMessage());
+		}
+	}
+
+	public void Emit(String a, String b)
+			throws CompilerError
+	{
+		if (block != null) {
+			block.add(a + b);
+			return;
+		}
+		++lines;
+		try {
+			out.append(a).append(b).append('\n');
+		} catch (IOException e) {
+			throw new FatalError("IOException writing MASM: " + e.getMessage());
+		}
+	}
+
+	public void Emit(String a, String b, String c)
+			throws CompilerError
+	{
+		if (block != null) {
+			block.add(a + b + c);
+			return;
+		}
+		++lines;
+		try {
+			out.append(a).append(b).append(c).append('\n');
+		} catch (IOException e) {
+			throw new FatalError("IOException writing MASM: " + e.getMessage());
+		}
+	}
+
+	public void Emit(String a, int n, String c)
+			throws CompilerError
+	{
+		if (block != null) {
+			block.add(a + Integer.toString(n) + c);
+			return;
+		}
+		++lines;
+		try {
+			out.append(a).append(Integer.toString(n)).append(c).append('\n');
+		} catch (IOException e) {
+			throw new FatalError("IOException writing MASM: " + e.getMessage());
+		}
+	}
+}
@@ -0,0 +1,562 @@
+
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Event;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+// Metrics class is the instrumentation of one compilation: the wall time and
+//	the bytes allocated in each phase, the tokens read, the nodes of the
+//	intermediate code by kind (as parsed), and for each function the time
+//	and bytes of its code generation, the labels it allocated and the MASM
+//	lines it emitted.  It is given to the compiler with Compiler.Measure(..),
+//	and written out as one line of JSON by Json(..) (see --stats).
+// Every phase and every function is also committed as a JDK Flight Recorder
+//	event (nanomorpho.Phase and nanomorpho.Function), so a recording shows
+//	them beside the GC and JIT.  A compiler that is given no Metrics makes
+//	one of its own only while such a recording is on (see Recording(..)).
+//	Otherwise nothing is measured, and the cost is a null check per phase,
+//	per function and per token.
+// The phases are not all disjoint in wall time: tokens are lexed as the
+//	parser asks for them, and the MASM is written as it is generated.  The
+//	time of lexing is therefore taken out of that of parsing, and the time
+//	and bytes of writing out of those of code generation.  Bytes allocated
+//	while lexing are counted as parsing.
+// Totals class aggregates the Metrics of many compilations into histograms,
+//	for batch and daemon use.
+public class Metrics {
+
+	public static final int		LEX = 0;
+	public static final int		PARSE = 1;
+	public static final int		FOLD = 2;
+	public static final int		CODEGEN = 3;
+	public static final int		WRITE = 4;
+
+	public static final String[]	PHASES = { "lex", "parse", "fold", "codegen", "write" };
+
+
+	public Metrics(String sourceName) {
+		source = sourceName;
+		nanos = new long[PHASES.length];
+		bytes = new long[PHASES.length];
+		nodes = new int[Arena.KINDS.length];
+		functions = new ArrayList<>();
+		owner = null;
+		ok = false;
+		reused = false;
+	}
+
+	// Recording(..) method tells whether a flight recording takes the events
+	//	of the compiler, so that it is worth measuring without --stats.  The
+	//	events are not touched unless the recorder is up, as registering them
+	//	costs JVM startup a good deal.
+	public static boolean Recording() {
+		return FlightRecorder.isInitialized() && new PhaseEvent().isEnabled();
+	}
+
+	// Allocated(..) method returns the bytes allocated so far by the thread
+	//	it is called on, or 0 if the JVM does not count them.
+	public static long Allocated() {
+		return (Counter.threads != null ? Counter.threads.getCurrentThreadAllocatedBytes() : 0);
+	}
+
+	// ---- Phases ----
+
+	// Begin(..) and End(..) methods bracket a phase, on the thread that runs
+	//	the compilation.  Lexing and writing are not bracketed, but added up
+	//	by Lex(..) and Timed(..) within parsing and code generation.
+	public void Begin(int phase) {
+		owner = Thread.currentThread();
+		phaseNanos = System.nanoTime();
+		phaseBytes = Allocated();
+		if (phase == CODEGEN) {
+			ownerFunctionBytes = 0;
+		}
+		event = new PhaseEvent();
+		event.begin();
+	}
+
+	public void End(int phase) {
+		long	t = System.nanoTime() - phaseNanos;
+		long	b = Allocated() - phaseBytes;
+
+		if (phase == PARSE) {
+			t -= nanos[LEX];
+		} else if (phase == CODEGEN) {
+			t -= nanos[WRITE];
+			b -= bytes[WRITE];
+			// Functions generated on other threads allocated there.
+			b -= ownerFunctionBytes;
+			for (Function f : functions) {
+				b += f.bytes;
+			}
+		}
+		nanos[phase] += t;
+		bytes[phase] += b;
+
+		event.end();
+		if (event.shouldCommit()) {
+			Commit(event, phase, t, b);
+			if (phase == PARSE) {
+				Commit(new PhaseEvent(), LEX, nanos[LEX], 0);
+			} else if (phase == CODEGEN) {
+				Commit(new PhaseEvent(), WRITE, nanos[WRITE], bytes[WRITE]);
+			}
+		}
+		event = null;
+	}
+
+	private void Commit(PhaseEvent e, int phase, long t, long b) {
+		e.source = source;
+		e.phase = PHASES[phase];
+		e.time = t;
+		e.allocated = b;
+		e.commit();
+	}
+
+	// Lex(..) method adds the time of reading one token.
+	public void Lex(long t) {
+		nanos[LEX] += t;
+	}
+
+	// Timed(..) method wraps the sink of the MASM, so that the time and
+	//	bytes spent in it are counted as writing.
+	public Writer Timed(Writer sink) {
+		return new Writer() {
+			@Override
+			public void write(char[] buf, int off, int len)
+					throws IOException
+			{
+				long t0 = System.nanoTime();
+				long b0 = Allocated();
+				sink.write(buf, off, len);
+				Written(t0, b0);
+			}
+
+			@Override
+			public void write(String s, int off, int len)
+					throws IOException
+			{
+				long t0 = System.nanoTime();
+				long b0 = Allocated();
+				sink.write(s, off, len);
+				Written(t0, b0);
+			}
+
+			@Override
+			public void flush()
+					throws IOException
+			{
+				long t0 = System.nanoTime();
+				long b0 = Allocated();
+				sink.flush();
+				Written(t0, b0);
+			}
+
+			@Override
+			public void close()
+					throws IOException
+			{
+				long t0 = System.nanoTime();
+				long b0 = Allocated();
+				sink.close();
+				Written(t0, b0);
+			}
+		};
+	}
+
+	// Written(..) method adds the time and bytes since 't0' and 'b0' to those
+	//	of writing, e.g. of moving the output into place.
+	public void Written(long t0, long b0) {
+		bytes[WRITE] += Allocated() - b0;
+		nanos[WRITE] += System.nanoTime() - t0;
+	}
+
+	// ---- Counts ----
+
+	// Parsed(..) method adds a function (or a cached block, given no code),
+	//	in program order, and returns it.
+	public Function Parsed(String name, int tokenCount, TcFunction code, long parseNanos) {
+		Function f = new Function(name, tokenCount, parseNanos);
+		if (code != null) {
+			f.nodes = code.Count(nodes);
+		} else {
+			f.cached = true;
+		}
+		functions.add(f);
+		tokens += tokenCount;
+		return f;
+	}
+
+	// Function(..) method returns the function numbered 'i', or NULL.
+	public Function Function(int i) {
+		return (i < functions.size() ? functions.get(i) : null);
+	}
+
+	// Generated(..) method records the code generation of 'f', from 't0' and
+	//	'b0' on this thread, and commits its event 'e' (see Function.Event(..))
+	//	if there is one.  It may be called on any thread, but only once for
+	//	each function.
+	public void Generated(Function f, FunctionEvent e, long t0, long b0, int labels, int lines) {
+		long t = System.nanoTime() - t0;
+		long b = Allocated() - b0;
+
+		f.nanos = t;
+		f.bytes = b;
+		f.labels = labels;
+		f.lines = lines;
+		if (Thread.currentThread() == owner) {
+			ownerFunctionBytes += b;
+		}
+		if (e != null) {
+			f.Commit(e, source);
+		}
+	}
+
+	// Dropped(..) method records that 'f' was not generated, as the entry
+	//	point never calls it (see TcProgram.Reach(..)).
+	public void Dropped(Function f) {
+		f.dropped = true;
+	}
+
+	// Finish(..) method records the outcome of the compilation.  A source
+	//	found in the DiskCache is 'reused', and was not compiled at all.
+	public void Finish(boolean success, boolean fromDisk, int sourceLines) {
+		ok = success;
+		reused = fromDisk;
+		lines = sourceLines;
+	}
+
+	// ---- Output ----
+
+	// Json(..) method writes out the metrics as one line of JSON; times are
+	//	in nanoseconds.
+	public String Json() {
+		StringBuilder sb = new StringBuilder(256 + 128 * functions.size());
+		sb.append("{\"source\":");
+		Quote(sb, source);
+		sb.append(",\"ok\":").append(ok);
+		sb.append(",\"reused\":").append(reused);
+		sb.append(",\"lines\":").append(lines);
+		sb.append(",\"tokens\":").append(tokens);
+
+		sb.append(",\"phases\":{");
+		for (int p = 0; p < PHASES.length; ++p) {
+			sb.append(p > 0 ? "," : "").append('"').append(PHASES[p]).append("\":{\"nanos\":").append(nanos[p])
+					.append(",\"bytes\":").append(bytes[p]).append('}');
+		}
+
+		sb.append("},\"nodes\":{");
+		for (int k = 0; k < nodes.length; ++k) {
+			sb.append(k > 0 ? "," : "").append('"').append(Arena.KINDS[k]).append("\":").append(nodes[k]);
+		}
+
+		int labels = 0;
+		int masm = 0;
+		for (Function f : functions) {
+			labels += f.labels;
+			masm += f.lines;
+		}
+		sb.append("},\"labels\":").append(labels);
+		sb.append(",\"masm_lines\":").append(masm);
+
+		sb.append(",\"functions\":[");
+		for (int i = 0; i < functions.size(); ++i) {
+			Function f = functions.get(i);
+			sb.append(i > 0 ? "," : "").append("{\"name\":");
+			Quote(sb, f.name);
+			sb.append(",\"cached\":").append(f.cached)
+					.append(",\"dropped\":").append(f.dropped)
+					.append(",\"tokens\":").append(f.tokens)
+					.append(",\"nodes\":").append(f.nodes)
+					.append(",\"labels\":").append(f.labels)
+					.append(",\"masm_lines\":").append(f.lines)
+					.append(",\"parse_nanos\":").append(f.parseNanos)
+					.append(",\"codegen_nanos\":").append(f.nanos)
+					.append(",\"codegen_bytes\":").append(f.bytes).append('}');
+		}
+		sb.append("]}");
+		return sb.toString();
+	}
+
+	private static void Quote(StringBuilder sb, String s) {
+		sb.append('"');
+		for (int i = 0; s != null && i < s.length(); ++i) {
+			char c = s.charAt(i);
+			if (c == '"' || c == '\\') {
+				sb.append('\\').append(c);
+			} else if (c < 0x20) {
+				sb.append(String.format("\\u%04x", (int) c));
+			} else {
+				sb.append(c);
+			}
+		}
+		sb.append('"');
+	}
+
+	// Counter class holds the allocation counter of the current thread, where
+	//	the JVM has one; it is looked up only once something is measured.
+	private static class Counter {
+		static final com.sun.management.ThreadMXBean	threads = Threads();
+	}
+
+	private static com.sun.management.ThreadMXBean Threads() {
+		try {
+			com.sun.management.ThreadMXBean t = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+			return (t.isThreadAllocatedMemorySupported() && t.isThreadAllocatedMemoryEnabled() ? t : null);
+		} catch (ClassCastException | UnsupportedOperationException e) {
+			return null;
+		}
+	}
+
+	private final String			source;
+	private final long[]			nanos;
+	private final long[]			bytes;
+	private final int[]				nodes;
+	private final ArrayList<Function>	functions;
+	private int						tokens;
+	private int						lines;
+	private boolean					ok;
+	private boolean					reused;
+
+	// The phase under way, on the thread that runs the compilation.
+	private Thread					owner;
+	private long					phaseNanos;
+	private long					phaseBytes;
+	private long					ownerFunctionBytes;
+	private PhaseEvent				event;
+
+	// Function class is the metrics of one function of the program.
+	public static class Function {
+		final String	name;
+		final int		tokens;
+		final long		parseNanos;
+		boolean			cached;
+		boolean			dropped;
+		int				nodes;
+		long			nanos;
+		long			bytes;
+		int				labels;
+		int				lines;
+
+		Function(String functionName, int tokenCount, long parse) {
+			name = functionName;
+			tokens = tokenCount;
+			parseNanos = parse;
+		}
+
+		// Event(..) method returns a flight recorder event for the code
+		//	generation of the function, begun, or NULL if none is recorded.
+		public FunctionEvent Event() {
+			FunctionEvent e = new FunctionEvent();
+			if (!e.isEnabled()) {
+				return null;
+			}
+			e.begin();
+			return e;
+		}
+
+		void Commit(FunctionEvent e, String sourceName) {
+			e.end();
+			if (e.shouldCommit()) {
+				e.source = sourceName;
+				e.function = name;
+				e.cached = cached;
+				e.tokens = tokens;
+				e.nodes = nodes;
+				e.labels = labels;
+				e.lines = lines;
+				e.allocated = bytes;
+				e.commit();
+			}
+		}
+	}
+
+	// ---- Flight recorder events ----
+
+	@Name("nanomorpho.Phase")
+	@Label("Compiler Phase")
+	@Category("NanoMorpho")
+	static class PhaseEvent extends Event {
+		@Label("Source")
+		String	source;
+
+		@Label("Phase")
+		String	phase;
+
+		// The time of the phase itself, which for lexing and writing is less
+		//	than the span of the event (see Metrics).
+		@Label("Time")
+		@Timespan(Timespan.NANOSECONDS)
+		long	time;
+
+		@Label("Allocated")
+		@DataAmount
+		long	allocated;
+	}
+
+	@Name("nanomorpho.Function")
+	@Label("Function Code Generation")
+	@Category("NanoMorpho")
+	static class FunctionEvent extends Event {
+		@Label("Source")
+		String	source;
+
+		@Label("Function")
+		String	function;
+
+		@Label("Cached")
+		boolean	cached;
+
+		@Label("Tokens")
+		int		tokens;
+
+		@Label("Nodes")
+		int		nodes;
+
+		@Label("Labels")
+		int		labels;
+
+		@Label("MASM Lines")
+		int		lines;
+
+		@Label("Allocated")
+		@DataAmount
+		long	allocated;
+	}
+
+	// ---- Aggregation ----
+
+	// Totals class adds up the Metrics of many compilations, each phase and
+	//	function into a histogram; it may be added to from any thread.
+	public static class Totals {
+		public Totals() {
+			phaseNanos = new Histogram[PHASES.length];
+			phaseBytes = new Histogram[PHASES.length];
+			for (int p = 0; p < PHASES.length; ++p) {
+				phaseNanos[p] = new Histogram();
+				phaseBytes[p] = new Histogram();
+			}
+			functionNanos = new Histogram();
+			functionLines = new Histogram();
+			nodes = new long[Arena.KINDS.length];
+		}
+
+		public synchronized void Add(Metrics m) {
+			// Only compilations that ran to the end are in the histograms.
+			++compilations;
+			if (!m.ok) {
+				++failed;
+				return;
+			}
+			if (m.reused) {
+				++reused;
+				return;
+			}
+			lines += m.lines;
+			tokens += m.tokens;
+			for (int p = 0; p < PHASES.length; ++p) {
+				phaseNanos[p].Add(m.nanos[p]);
+				phaseBytes[p].Add(m.bytes[p]);
+			}
+			for (int k = 0; k < nodes.length; ++k) {
+				nodes[k] += m.nodes[k];
+			}
+			for (Function f : m.functions) {
+				if (f.dropped) {
+					continue;
+				}
+				if (!f.cached) {
+					functionNanos.Add(f.nanos);
+				}
+				functionLines.Add(f.lines);
+				labels += f.labels;
+			}
+		}
+
+		public synchronized String Json() {
+			StringBuilder sb = new StringBuilder(1024);
+			sb.append("{\"compilations\":").append(compilations);
+			sb.append(",\"failed\":").append(failed);
+			sb.append(",\"reused\":").append(reused);
+			sb.append(",\"lines\":").append(lines);
+			sb.append(",\"tokens\":").append(tokens);
+			sb.append(",\"labels\":").append(labels);
+			sb.append(",\"phases\":{");
+			for (int p = 0; p < PHASES.length; ++p) {
+				sb.append(p > 0 ? "," : "").append('"').append(PHASES[p]).append("\":{\"nanos\":");
+				phaseNanos[p].Json(sb);
+				sb.append(",\"bytes\":");
+				phaseBytes[p].Json(sb);
+				sb.append('}');
+			}
+			sb.append("},\"nodes\":{");
+			for (int k = 0; k < nodes.length; ++k) {
+				sb.append(k > 0 ? "," : "").append('"').append(Arena.KINDS[k]).append("\":").append(nodes[k]);
+			}
+			sb.append("},\"function_codegen_nanos\":");
+			functionNanos.Json(sb);
+			sb.append(",\"function_masm_lines\":");
+			functionLines.Json(sb);
+			sb.append('}');
+			return sb.toString();
+		}
+
+		private long			compilations;
+		private long			failed;
+		private long			reused;
+		private long			lines;
+		private long			tokens;
+		private long			labels;
+		private final long[]	nodes;
+		private final Histogram[]	phaseNanos;
+		private final Histogram[]	phaseBytes;
+		private final Histogram	functionNanos;
+		private final Histogram	functionLines;
+	}
+
+	// Histogram class counts values in buckets by powers of two, so that it
+	//	takes the same room however many it counts; its percentiles are the
+	//	upper bounds of their buckets.
+	public static class Histogram {
+		public void Add(long value) {
+			long v = Math.max(value, 0);
+			++buckets[64 - Long.numberOfLeadingZeros(v)];
+			++count;
+			sum += v;
+			max = Math.max(max, v);
+		}
+
+		public long Percentile(int p) {
+			long target = (long) Math.ceil(p / 100.0 * count);
+			long seen = 0;
+			for (int i = 0; i < buckets.length; ++i) {
+				seen += buckets[i];
+				if (seen >= target && seen > 0) {
+					return (i == 0 ? 0 : Math.min(max, i == 64 ? Long.MAX_VALUE : (1L << i) - 1));
+				}
+			}
+			return max;
+		}
+
+		public void Json(StringBuilder sb) {
+			sb.append("{\"count\":").append(count)
+					.append(",\"sum\":").append(sum)
+					.append(",\"p50\":").append(Percentile(50))
+					.append(",\"p90\":").append(Percentile(90))
+					.append(",\"p99\":").append(Percentile(99))
+					.append(",\"max\":").append(max).append('}');
+		}
+
+		private final long[]	buckets = new long[65];
+		private long			count;
+		private long			sum;
+		private long			max;
+	}
+}
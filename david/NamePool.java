@@ -0,0 +1,111 @@
+
+import java.util.Arrays;
+
+// NamePool class numbers the names and literals of a compilation, so that
+//	the intermediate code (see Arena) refers to each by an int, and keeps
+//	just one copy of each however often it occurs.
+// NOTE: The pool is open-addressed, with linear probing, over an array of
+//	indices into the array of names, and is never more than half full.
+//	It is filled while lexing, parsing and folding, which run on one thread;
+//	code generation only reads it.  The lexer interns every lexeme it reads
+//	(see NanoLexer.init(..)), and the SymbolTable keys names by number.
+public class NamePool {
+	public NamePool() {
+		names = new String[64];
+		table = new int[128];
+		count = 0;
+	}
+
+	// Intern(..) method returns the number of 'name', adding it if new.
+	public int Intern(String name) {
+		final int mask = table.length - 1;
+		int h = name.hashCode();
+		int i = (h ^ (h >>> 16)) & mask;
+
+		while (table[i] != 0) {
+			String n = names[table[i] - 1];
+			if (n == name || n.equals(name)) {
+				return table[i] - 1;
+			}
+			i = (i + 1) & mask;
+		}
+
+		if (count == names.length) {
+			names = Arrays.copyOf(names, 2 * count);
+		}
+		names[count] = name;
+		table[i] = ++count;
+		if (2 * count > table.length) {
+			grow();
+		}
+		return count - 1;
+	}
+
+	// Intern(..) method returns the number of the name held in 'buf', from
+	//	'off' for 'len' characters, so that the lexer interns straight from
+	//	its buffer: a String is made only for a name not seen before.  It is
+	//	hashed as String.hashCode() would hash it.
+	public int Intern(char[] buf, int off, int len) {
+		final int mask = table.length - 1;
+		int h = 0;
+		for (int k = 0; k < len; ++k) {
+			h = 31 * h + buf[off + k];
+		}
+		int i = (h ^ (h >>> 16)) & mask;
+
+		while (table[i] != 0) {
+			if (Same(names[table[i] - 1], buf, off, len)) {
+				return table[i] - 1;
+			}
+			i = (i + 1) & mask;
+		}
+
+		if (count == names.length) {
+			names = Arrays.copyOf(names, 2 * count);
+		}
+		names[count] = new String(buf, off, len);
+		table[i] = ++count;
+		if (2 * count > table.length) {
+			grow();
+		}
+		return count - 1;
+	}
+
+	// Name(..) method returns the name numbered 'i'.
+	public String Name(int i) {
+		return names[i];
+	}
+
+	public int Size() {
+		return count;
+	}
+
+	private static boolean Same(String name, char[] buf, int off, int len) {
+		if (name.length() != len) {
+			return false;
+		}
+		for (int k = 0; k < len; ++k) {
+			if (name.charAt(k) != buf[off + k]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private void grow() {
+		table = new int[2 * table.length];
+		final int mask = table.length - 1;
+		for (int j = 0; j < count; ++j) {
+			int h = names[j].hashCode();
+			int i = (h ^ (h >>> 16)) & mask;
+			while (table[i] != 0) {
+				i = (i + 1) & mask;
+			}
+			table[i] = j + 1;
+		}
+	}
+
+	private String[]	names;
+	private int[]		table;
+	private int			count;
+}
@@ -0,0 +1,334 @@
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+
+// Peephole class is the MASM optimizer run between code generation and
+//	output.  The MasmWriter hands it the body of each function (the lines
+//	between '[' and '];') before writing it out, and it rewrites these with
+//	a small window of rules until none of them applies:
+//		(Go L) .. L: (Go M)			jumps to jumps are threaded to the end
+//		(GoFalse L) .. L: (GoFalse M)	of the chain, as are conditional jumps
+//									to the same condition (_acc_ is unchanged)
+//		(Go L) .. L: (Return)		becomes (Return)
+//		(Go L) L:					the jump to the next line is removed
+//		(GoFalse L) (Go M) L:		becomes (GoTrue M) L:, and vice versa
+//		(Call f) (Return)			becomes (CallR f)
+//		(Store n) (Fetch n)			the Fetch is removed
+//	and code following (Go ..), (Return) or (CallR ..) up to the next label is
+//	unreachable, and removed.  Labels no longer jumped to are removed.
+// NOTE: Labels are local to the function they are generated in (see
+//	MasmWriter.LabelScope(..)), so a function can be optimized on its own.
+// Counts of what was done are kept over all functions optimized, which
+//	may happen on several threads at once.
+public class Peephole {
+	// Rules, as indices into the counts.
+	private static final int	THREAD = 0;
+	private static final int	NEXT = 1;
+	private static final int	INVERT = 2;
+	private static final int	TAILCALL = 3;
+	private static final int	RELOAD = 4;
+	private static final int	UNREACHABLE = 5;
+	private static final int	RULES = 6;
+
+	private static final String[] NAMES = {
+		"jumps threaded", "jumps to next removed", "branches inverted",
+		"tail calls", "reloads removed", "unreachable removed" };
+
+	private long				before;
+	private long				after;
+	private final long[]		counts;
+
+	public Peephole() {
+		before = 0;
+		after = 0;
+		counts = new long[RULES];
+	}
+
+	// Report(..) method describes, in one line, the instruction counts before
+	//	and after optimization, and the instructions each rule saved.
+	public synchronized String Report() {
+		StringBuilder sb = new StringBuilder();
+		sb.append("Peephole: ").append(before).append(" -> ").append(after).append(" instructions");
+		String sep = " (";
+		for (int r = 0; r < RULES; ++r) {
+			if (counts[r] > 0) {
+				sb.append(sep).append(NAMES[r]).append(' ').append(counts[r]);
+				sep = ", ";
+			}
+		}
+		return sb.append(sep.equals(", ") ? ")" : "").toString();
+	}
+
+	public synchronized long Before() {
+		return before;
+	}
+
+	public synchronized long After() {
+		return after;
+	}
+
+	// Optimize(..) method returns the optimized body of one function.
+	public ArrayList<String> Optimize(ArrayList<String> code) {
+		long[]		done = new long[RULES];
+		Block		b = new Block(code);
+		long		in = b.Instructions();
+
+		// Each round either changes the code or ends the loop, and every
+		//	change makes the code shorter or threads a jump further along.
+		//	Without jumps the window rules do all there is to do in one go.
+		while (true) {
+			long	rules = Sum(done);
+			int		size = b.n;
+
+			if (b.jumps) {
+				Thread(b, done);
+			}
+			Window(b, done);
+			if (!b.jumps) {
+				break;
+			}
+			Sweep(b);
+
+			if (Sum(done) == rules && b.n == size) {
+				break;
+			}
+		}
+
+		synchronized (this) {
+			before += in;
+			after += b.Instructions();
+			for (int r = 0; r < RULES; ++r) {
+				counts[r] += done[r];
+			}
+		}
+
+		ArrayList<String> out = new ArrayList<>(b.n);
+		for (int i = 0; i < b.n; ++i) {
+			out.add(b.lines[i]);
+		}
+		return out;
+	}
+
+	// Block class is the code being optimized, each line along with its
+	//	operation, so that no rule has to look at a line twice to know what
+	//	it is.  Rules rewrite it in place.
+	private static class Block {
+		String[]	lines;
+		int[]		ops;
+		int			n;
+		boolean		jumps;
+
+		Block(ArrayList<String> code) {
+			n = code.size();
+			lines = code.toArray(new String[n]);
+			ops = new int[n];
+			jumps = false;
+			for (int i = 0; i < n; ++i) {
+				ops[i] = Op(lines[i]);
+				jumps = jumps || IsJump(ops[i]);
+			}
+		}
+
+		long Instructions() {
+			long count = 0;
+			for (int i = 0; i < n; ++i) {
+				if (ops[i] != LABEL) {
+					++count;
+				}
+			}
+			return count;
+		}
+
+		// LabelFollows(..) tells whether the target of the jump at 'jump' is
+		//	among the labels at 'from'.
+		boolean LabelFollows(int from, int jump) {
+			String	j = lines[jump];
+			int		start = OPS[ops[jump]].length() + 2;
+			int		length = j.length() - 1 - start;
+			for (int i = from; i < n && ops[i] == LABEL; ++i) {
+				if (lines[i].length() == length + 1 && lines[i].regionMatches(0, j, start, length)) {
+					return true;
+				}
+			}
+			return false;
+		}
+	}
+
+	// ---- Rules ----
+
+	// Thread(..) retargets every jump to the end of its chain of jumps.
+	private static void Thread(Block b, long[] done) {
+		HashMap<String, Integer> labels = new HashMap<>();
+		for (int i = 0; i < b.n; ++i) {
+			if (b.ops[i] == LABEL) {
+				labels.put(b.lines[i].substring(0, b.lines[i].length() - 1), i);
+			}
+		}
+
+		// The instruction at or after each line, found once; a run of labels
+		//	(e.g. the exits of a long chain of &&s) is not scanned per jump.
+		int[] instruction = new int[b.n + 1];
+		instruction[b.n] = -1;
+		for (int i = b.n - 1; i >= 0; --i) {
+			instruction[i] = (b.ops[i] != LABEL ? i : instruction[i + 1]);
+		}
+
+		for (int i = 0; i < b.n; ++i) {
+			int op = b.ops[i];
+			if (!IsJump(op)) {
+				continue;
+			}
+
+			String target = Arg(b.lines[i]);
+			String to = target;
+			int next = -1;
+			int steps = 0;
+			for (; steps <= labels.size(); ++steps) {
+				Integer at = labels.get(to);
+				next = (at != null ? instruction[at] : -1);
+				if (next < 0 || !(b.ops[next] == GO || b.ops[next] == op)) {
+					break;
+				}
+				to = Arg(b.lines[next]);
+			}
+			// Following more jumps than there are labels means going around a
+			//	cycle, an empty infinite loop, which is left alone.
+			if (steps > labels.size()) {
+				continue;
+			}
+
+			if (op == GO && next >= 0 && b.ops[next] == RETURN) {
+				b.lines[i] = "(Return)";
+				b.ops[i] = RETURN;
+				++done[THREAD];
+			} else if (!to.equals(target)) {
+				b.lines[i] = "(" + OPS[op] + " " + to + ")";
+				++done[THREAD];
+			}
+		}
+	}
+
+	// Window(..) applies the rules that look at neighbouring lines, moving
+	//	the lines kept down over those removed.
+	private static void Window(Block b, long[] done) {
+		boolean reachable = true;
+		int out = 0;
+
+		for (int i = 0; i < b.n; ++i) {
+			String line = b.lines[i];
+			int op = b.ops[i];
+			int next = (i + 1 < b.n ? b.ops[i + 1] : OTHER);
+
+			if (op == LABEL) {
+				reachable = true;
+			} else if (!reachable) {
+				++done[UNREACHABLE];
+				continue;
+			} else if (IsJump(op) && b.LabelFollows(i + 1, i)) {
+				++done[NEXT];
+				continue;
+			} else if ((op == GOFALSE || op == GOTRUE) && next == GO && b.LabelFollows(i + 2, i)) {
+				op = (op == GOFALSE ? GOTRUE : GOFALSE);
+				line = "(" + OPS[op] + " " + Arg(b.lines[i + 1]) + ")";
+				++done[INVERT];
+				++i;
+			} else if (op == CALL && next == RETURN) {
+				op = CALLR;
+				line = "(CallR " + line.substring("(Call ".length());
+				++done[TAILCALL];
+				++i;
+			} else if (op == STORE && next == FETCH && b.lines[i + 1].length() == line.length()
+					&& b.lines[i + 1].regionMatches(7, line, 7, line.length() - 7)) {
+				// "(Store " and "(Fetch " are of the same length.
+				++done[RELOAD];
+				++i;
+			}
+
+			if (op != LABEL) {
+				reachable = !(op == GO || op == RETURN || op == CALLR);
+			}
+			b.lines[out] = line;
+			b.ops[out] = op;
+			++out;
+		}
+		b.n = out;
+	}
+
+	// Sweep(..) removes the labels that are no longer jumped to.
+	private static void Sweep(Block b) {
+		HashSet<String> used = new HashSet<>();
+		for (int i = 0; i < b.n; ++i) {
+			if (IsJump(b.ops[i])) {
+				used.add(Arg(b.lines[i]));
+			}
+		}
+
+		int out = 0;
+		for (int i = 0; i < b.n; ++i) {
+			if (b.ops[i] != LABEL || used.contains(b.lines[i].substring(0, b.lines[i].length() - 1))) {
+				b.lines[out] = b.lines[i];
+				b.ops[out] = b.ops[i];
+				++out;
+			}
+		}
+		b.n = out;
+	}
+
+	// ---- Line helpers ----
+
+	// Operations the rules look at; any other is OTHER.
+	private static final int	OTHER = 0;
+	private static final int	LABEL = 1;
+	private static final int	GO = 2;
+	private static final int	GOFALSE = 3;
+	private static final int	GOTRUE = 4;
+	private static final int	CALL = 5;
+	private static final int	CALLR = 6;
+	private static final int	RETURN = 7;
+	private static final int	STORE = 8;
+	private static final int	FETCH = 9;
+
+	private static final String[] OPS = {
+		"", "", "Go", "GoFalse", "GoTrue", "Call", "CallR", "Return", "Store", "Fetch" };
+
+	// Op(..) classifies a line, once, when the Block is made.
+	private static int Op(String line) {
+		if (line.isEmpty() || line.charAt(0) != '(') {
+			return (!line.isEmpty() && line.charAt(line.length() - 1) == ':' ? LABEL : OTHER);
+		}
+		switch (line.length() > 1 ? line.charAt(1) : ' ') {
+			case 'G':
+				return (line.startsWith("(Go ") ? GO : line.startsWith("(GoFalse ") ? GOFALSE
+						: line.startsWith("(GoTrue ") ? GOTRUE : OTHER);
+			case 'C':
+				return (line.startsWith("(Call ") ? CALL : line.startsWith("(CallR ") ? CALLR : OTHER);
+			case 'R':
+				return (line.equals("(Return)") ? RETURN : OTHER);
+			case 'S':
+				return (line.startsWith("(Store ") ? STORE : OTHER);
+			case 'F':
+				return (line.startsWith("(Fetch ") ? FETCH : OTHER);
+			default:
+				return OTHER;
+		}
+	}
+
+	private static boolean IsJump(int op) {
+		return op == GO || op == GOFALSE || op == GOTRUE;
+	}
+
+	// Arg(..) returns everything after the operation name, without the ')'.
+	private static String Arg(String line) {
+		int start = line.indexOf(' ');
+		return (start > 0 ? line.substring(start + 1, line.length() - 1) : "");
+	}
+
+	private static long Sum(long[] done) {
+		long n = 0;
+		for (long d : done) {
+			n += d;
+		}
+		return n;
+	}
+}
@@ -0,0 +1,243 @@
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+// Source class is the input of a compilation, as the Reader the lexer
+//	reads: a file, a CharSequence or byte array held in memory, or the
+//	standard input.  Sources are always decoded as UTF-8, whatever the
+//	platform's default charset, and malformed input is an error rather
+//	than silently replaced.
+// A file of MAP_THRESHOLD bytes or more is memory-mapped, and decoded
+//	straight from the mapped region into the lexer's buffer; a smaller file
+//	(or the standard input) is read through its channel, a chunk at a time,
+//	into a buffer that is reused by the next source opened on the thread.
+// NOTE: close(..) closes the file as soon as the source is done with; a
+//	mapping cannot be released explicitly in Java, and goes when it is
+//	collected.  Closing the standard input source leaves System.in open.
+public class Source extends Reader {
+
+	// Files this large are mapped rather than read.
+	public static final int		MAP_THRESHOLD = 1 << 20;
+
+	private static final int	CHUNK = 1 << 16;
+
+	// Chunk buffers, one spare per thread.
+	private static final ThreadLocal<ByteBuffer>	spare = new ThreadLocal<>();
+
+	private final String		name;
+	private final Path			path;
+	private ReadableByteChannel	channel;
+	private final boolean		closeChannel;
+	private ByteBuffer			bytes;
+	private boolean				chunked;
+	private boolean				eof;
+	private boolean				flushed;
+	private CharsetDecoder		decoder;
+
+	private final CharSequence	text;
+	private int					at;
+
+	// A character decoded that did not fit in the caller's array (the low
+	//	half of a surrogate pair), or -1.
+	private int					pending;
+
+	private Source(String sourceName, Path file, ReadableByteChannel in, boolean owned, ByteBuffer whole, CharSequence chars) {
+		name = sourceName;
+		path = file;
+		channel = in;
+		closeChannel = owned;
+		text = chars;
+		at = 0;
+		pending = -1;
+		flushed = false;
+
+		if (chars == null) {
+			decoder = StandardCharsets.UTF_8.newDecoder()
+					.onMalformedInput(CodingErrorAction.REPORT)
+					.onUnmappableCharacter(CodingErrorAction.REPORT);
+		}
+		if (whole != null) {
+			bytes = whole;
+			chunked = false;
+			eof = true;
+		} else if (in != null) {
+			bytes = spare.get();
+			spare.remove();
+			if (bytes == null) {
+				bytes = ByteBuffer.allocate(CHUNK);
+			}
+			bytes.clear().flip();
+			chunked = true;
+			eof = false;
+		}
+	}
+
+	// File(..) opens the file at 'file', mapping it if it is large.
+	public static Source File(Path file)
+			throws IOException
+	{
+		FileChannel ch = FileChannel.open(file, StandardOpenOption.READ);
+		try {
+			long size = ch.size();
+			if (size >= MAP_THRESHOLD) {
+				ByteBuffer mapped = ch.map(FileChannel.MapMode.READ_ONLY, 0, size);
+				return new Source(file.toString(), file, ch, true, mapped, null);
+			}
+			return new Source(file.toString(), file, ch, true, null, null);
+		} catch (IOException | RuntimeException e) {
+			ch.close();
+			throw e;
+		}
+	}
+
+	// Text(..) and Bytes(..) are sources held in memory; 'bytes' is UTF-8.
+	public static Source Text(String sourceName, CharSequence chars) {
+		return new Source(sourceName, null, null, false, null, chars);
+	}
+
+	public static Source Bytes(String sourceName, byte[] utf8) {
+		return new Source(sourceName, null, null, false, ByteBuffer.wrap(utf8), null);
+	}
+
+	public static Source Stdin() {
+		return new Source("<stdin>", null, Channels.newChannel(System.in), false, null, null);
+	}
+
+	// Name(..) method returns the name of the source, for diagnostics.
+	public String Name() {
+		return name;
+	}
+
+	// Content(..) method returns the whole source as UTF-8, e.g. to key the
+	//	DiskCache with, and must be called before any of it is read.  The
+	//	standard input is read to its end, and then read from memory.
+	public byte[] Content()
+			throws IOException
+	{
+		if (text != null) {
+			return text.toString().getBytes(StandardCharsets.UTF_8);
+		}
+		if (path != null) {
+			return Files.readAllBytes(path);
+		}
+		if (!chunked) {
+			byte[] out = new byte[bytes.remaining()];
+			bytes.duplicate().get(out);
+			return out;
+		}
+
+		byte[] out = Channels.newInputStream(channel).readAllBytes();
+		Release();
+		bytes = ByteBuffer.wrap(out);
+		chunked = false;
+		eof = true;
+		return out;
+	}
+
+	@Override
+	public int read(char[] cbuf, int off, int len)
+			throws IOException
+	{
+		if (len == 0) {
+			return 0;
+		}
+		if (text != null) {
+			int n = Math.min(len, text.length() - at);
+			if (n <= 0) {
+				return -1;
+			}
+			if (text instanceof String) {
+				((String) text).getChars(at, at + n, cbuf, off);
+			} else {
+				for (int i = 0; i < n; ++i) {
+					cbuf[off + i] = text.charAt(at + i);
+				}
+			}
+			at += n;
+			return n;
+		}
+		if (bytes == null) {
+			return -1;
+		}
+
+		int start = off;
+		if (pending >= 0) {
+			cbuf[off++] = (char) pending;
+			--len;
+			pending = -1;
+		}
+		if (flushed) {
+			return (off > start ? off - start : -1);
+		}
+
+		CharBuffer out = CharBuffer.wrap(cbuf, off, len);
+		while (out.hasRemaining()) {
+			CoderResult r = decoder.decode(bytes, out, eof);
+			if (r.isError()) {
+				throw new IOException("Invalid UTF-8 in " + name + ".");
+			}
+			if (r.isOverflow()) {
+				// A surrogate pair that does not fit.
+				if (out.position() == off) {
+					char[] pair = new char[2];
+					CharBuffer two = CharBuffer.wrap(pair);
+					decoder.decode(bytes, two, eof);
+					cbuf[off] = pair[0];
+					pending = pair[1];
+					return off + 1 - start;
+				}
+				break;
+			}
+			// Underflow: the bytes at hand are all decoded.
+			if (eof) {
+				decoder.flush(out);
+				flushed = true;
+				break;
+			}
+			bytes.compact();
+			if (channel.read(bytes) < 0) {
+				eof = true;
+			}
+			bytes.flip();
+			if (out.position() > start) {
+				break;
+			}
+		}
+
+		int n = out.position() - start;
+		return (n == 0 ? -1 : n);
+	}
+
+	@Override
+	public void close()
+			throws IOException
+	{
+		Release();
+		bytes = null;
+		if (channel != null && closeChannel) {
+			channel.close();
+		}
+		channel = null;
+	}
+
+	// Release(..) method hands the chunk buffer back to the thread.
+	private void Release() {
+		if (chunked && bytes != null) {
+			spare.set(bytes);
+			bytes = null;
+		}
+		chunked = false;
+	}
+}
@@ -1,39 +1,85 @@
 
-import java.util.HashMap;
-
 // SymbolTable class contains an implementation of a simple Symbol Table to be
 //	used in conjunction with TreeCodes to generate a morpho assembly from valid
 //	nano-Morpho code.
 // Current implementation allows only:
-//	- Translation from string to unique integer.  Note that the current model
+//	- Translation from name to unique integer.  Note that the current model
 //		gives ascending integers to unique labels in the order they are
 //		translated.  This behaviour may be modified later.
+// Names are only translated once per use, by the resolution pass that
+//	follows the parsing of each function (see TreeCode.Resolve(..)); code
+//	generation then works from the slots left on the tree.
+// Names are numbered by the NamePool of the compilation, which the lexer
+//	interns them in, and the table is keyed by those numbers: no lookup
+//	hashes or compares a String.  The pool is only read to word errors.
+// NOTE: The table is open-addressed, with linear probing, over parallel
+//	arrays of name numbers (plus one, so that 0 is empty) and primitive
+//	slots, so that neither lookups nor registrations box an Integer.
 public class SymbolTable {
-	public int translate(String name)
+	public SymbolTable(NamePool pool) {
+		names = pool;
+	}
+
+	public int translate(int name)
 			throws SymbolError
 	{
-		if (!exists(name)) {
-			throw new SymbolError("Invalid symbol - '" + name + "' is not defined.");
+		int i = find(name);
+		if (keys[i] == 0) {
+			throw new SymbolError("Invalid symbol - '" + names.Name(name) + "' is not defined.");
 		} else {
-			return table.get(name);
+			return slots[i];
 		}
 	}
 
-	public boolean exists(String name) {
-		return table.containsKey(name);
+	public boolean exists(int name) {
+		return keys[find(name)] != 0;
 	}
 
-	public int register(String name)
+	public int register(int name)
 			throws SymbolError
 	{
-		if (exists(name)) {
-			throw new SymbolError("Symbol collision - '" + name + "' already defined.");
-		} else {
-			table.put(name, acc++);
-			return acc - 1;
+		int i = find(name);
+		if (keys[i] != 0) {
+			throw new SymbolError("Symbol collision - '" + names.Name(name) + "' already defined.");
+		}
+
+		keys[i] = name + 1;
+		slots[i] = acc++;
+		if (2 * acc > keys.length) {
+			grow();
+		}
+		return acc - 1;
+	}
+
+	// find(..) returns the index holding 'name', or the empty index at which
+	//	it would be inserted.  The table is never more than half full.
+	private int find(int name) {
+		final int mask = keys.length - 1;
+		int i = (name * 0x9E3779B9 >>> 16) & mask;
+
+		while (keys[i] != 0 && keys[i] != name + 1) {
+			i = (i + 1) & mask;
+		}
+		return i;
+	}
+
+	private void grow() {
+		int[]	oldKeys = keys;
+		int[]	oldSlots = slots;
+
+		keys = new int[oldKeys.length * 2];
+		slots = new int[oldKeys.length * 2];
+		for (int j = 0; j < oldKeys.length; ++j) {
+			if (oldKeys[j] != 0) {
+				int i = find(oldKeys[j] - 1);
+				keys[i] = oldKeys[j];
+				slots[i] = oldSlots[j];
+			}
 		}
 	}
 
-	private final HashMap<String, Integer> table = new HashMap<>();
+	private final NamePool names;
+	private int[] keys = new int[16];
+	private int[] slots = new int[16];
 	private int acc = 0;
-}
\ No newline at end of file
+}
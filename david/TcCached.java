@@ -0,0 +1,43 @@
+
+import java.util.List;
+
+// TcCached class ..................
+// NOTE: This class stands in the program for a function whose MASM was
+//	found in a FunctionCache, and which therefore was never parsed.  Its
+//	code is the cached block, verbatim.
+public class TcCached extends TreeCode {
+
+	public TcCached(String masm) {
+		super(null);
+
+		block = masm;
+	}
+
+	// Defines(..) and Calls(..) methods read the names off the block: it
+	//	starts with #"name[fN]" =, and each call is a line of its own.
+	@Override
+	public String Defines() {
+		int end = block.indexOf('"', 2);
+		return (block.startsWith("#\"") && end > 0 ? block.substring(2, end) : null);
+	}
+
+	@Override
+	public void Calls(List<String> callees) {
+		for (int at = block.indexOf("\n(Call"); at >= 0; at = block.indexOf("\n(Call", at + 1)) {
+			int start = block.indexOf("#\"", at);
+			int end = (start < 0 ? -1 : block.indexOf('"', start + 2));
+			if (end > 0) {
+				callees.add(block.substring(start + 2, end));
+			}
+		}
+	}
+
+	@Override
+	public void MasmCode(MasmWriter out, boolean tail)
+			throws CompilerError
+	{
+		out.Splice(block);
+	}
+
+	private String		block;
+}
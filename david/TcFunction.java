@@ -1,75 +1,143 @@
 
-import java.util.Arrays;
-import java.util.ArrayList;
+import java.util.List;
 
 // TcFunction class ..................
+// NOTE: The code of the function is held in an Arena of its own; 'body' is
+//	the first of the expressions of the function in it.
 public class TcFunction extends TreeCode {
 
-	public TcFunction(SymbolTable t, String funcName, String[] args_in, String[] decls_in, TreeCode[] expr) {
+	public TcFunction(SymbolTable t, String funcName, int[] args_in, int[] decls_in, Arena arena, int expr) {
 		super(t);
 
 		name = funcName;
 		args = args_in;
 		decls = decls_in;
+		code = arena;
 		body = expr;
 	}
 
-	// NOTE: This method will generate code for the final expression of the function
-	//	as a tail expression.  This may or may not be a good idea!  Must experiment
-	//	further.
+	// Resolve(..) method registers the arguments and declared variables with
+	//	the symbol table, in that order, and resolves the body against them.
 	@Override
-	public String[] MasmCode(boolean tail)
-			throws CompilerError
+	public void Resolve()
+			throws SymbolError
 	{
-		// Register the arguments and declared variables with the symbol table.
-		for (String a : args) {
+		for (int a : args) {
 			table.register(a);
 		}
 
-		for (String d : decls) {
+		for (int d : decls) {
 			table.register(d);
 		}
 
+		code.Resolve(table);
+	}
+
+	@Override
+	public TreeCode Fold() {
+		body = code.Fold(body);
+		return this;
+	}
+
+	public String Name() {
+		return name;
+	}
+
+	@Override
+	public String Defines() {
+		return name + "[f" + Integer.toString(args.length) + "]";
+	}
+
+	@Override
+	public void Calls(List<String> callees) {
+		code.Calls(body, callees);
+	}
+
+	// Count(..) method adds the nodes of the function's code, by kind, to
+	//	'byKind' (see Arena.Count(..)).
+	public int Count(int[] byKind) {
+		return code.Count(byKind);
+	}
+
+	// Cache(..) method has the MASM of this function stored in 'store' under
+	//	'key' once it is generated; 'nanos' is the time its parsing took.
+	public void Cache(FunctionCache store, String key, long nanos) {
+		cache = store;
+		cacheKey = key;
+		parseNanos = nanos;
+	}
+
+	// A function to be cached is generated into a block of its own first.
+	@Override
+	public void MasmCode(MasmWriter out, boolean tail)
+			throws CompilerError
+	{
+		if (cache == null) {
+			Generate(out);
+			return;
+		}
+
+		long t0 = System.nanoTime();
+		StringBuilder block = new StringBuilder();
+		MasmWriter fork = out.Fork(block);
+		Generate(fork);
+		String masm = block.toString();
+		cache.Put(cacheKey, new FunctionCache.Entry(masm, parseNanos + System.nanoTime() - t0));
+		out.Splice(masm, fork);
+	}
+
+	// NOTE: This method will generate code for the final expression of the function
+	//	as a tail expression.  This may or may not be a good idea!  Must experiment
+	//	further.
+	private void Generate(MasmWriter out)
+			throws CompilerError
+	{
 		final int			argCount = args.length;
 		final int			declCount = decls.length;
-		final int 			N = body.length;
-		ArrayList<String>	output = new ArrayList<>();
 
-		// Start by writing out the function label, and open the MASM block:
-		output.add("#\"" + name + "[f" + Integer.toString(argCount) + "]\" =");
-		output.add("[");
+		// Every function numbers its labels in a namespace of its own, so
+		//	that its code does not depend on the functions around it.
+		out.LabelScope(name + "_f" + Integer.toString(argCount));
 
-		// Allocate stack space for the local variables.
-		output.add("(MakeVal 0)");
-		for (int i = 0; i < declCount; i++) {
-			output.add("(Push)");
-		}
+		// Start by writing out the function label, and open the MASM block:
+		out.Emit("#\"", name, "[f" + Integer.toString(argCount) + "]\" =");
+		out.Emit("[");
+		out.Begin();
 
-		// Inject the MASM for the expressions.
-		for (int i = 0; i < (N - 1); i++) {
-			output.addAll(Arrays.asList(body[i].MasmCode(false)));
+		// Allocate stack space for the local variables, each 0.  The last of
+		//	them is pushed by the body (see Arena.MasmCode(..)), fused into its
+		//	first load where possible.  A function without locals leaves _acc_
+		//	alone, as the body sets it before anything reads it.
+		if (declCount > 0) {
+			out.Emit("(MakeVal 0)");
+			for (int i = 1; i < declCount; i++) {
+				out.Emit("(Push)");
+			}
 		}
 
-		// Final expression is called in tail format.
-		output.addAll(Arrays.asList(body[N - 1].MasmCode(true)));
-
+		// Inject the MASM for the expressions.  Final expression is called
+		//	in tail format.
 		// HACK: This is a bit of an ugly workaround here.  Rather than
 		//	checking semantically whether the function will definitely
 		//	return at some point, we simply insert a failsafe (Return)
-		//	code at the end of every function, just in case.  This will
-		//	sometimes result in superfluous MASM, but ensures that that
+		//	code at the end of every function that does not end on an
+		//	expression which can be tail optimized.  This ensures that
 		//	calling a particular function which does not explicitely
-		//	return (or end on an expression which can be tail optimized)
-		//	will not OVERRUN straight into the next defined function.
-		output.add("(Return)");
+		//	return will not OVERRUN straight into the next defined function.
+		code.MasmCode(out, body, declCount > 0);
+		out.End();
 
 		// Close the block.
-		output.add("];");
-		return output.toArray(new String[0]);
+		out.Emit("];");
 	}
 
 	private String		name;
-	private String[]	args;
-	private String[]	decls;
-	private TreeCode[]	body;
+	private int[]		args;
+	private int[]		decls;
+	private Arena		code;
+	private int			body;
+
+	private FunctionCache	cache = null;
+	private String			cacheKey = null;
+	private long			parseNanos = 0;
 }
\ No newline at end of file
@@ -1,40 +1,216 @@
 
-import java.util.Arrays;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 // TcProgram class ..................
+// The functions of a program are TcFunctions, or TcCached blocks standing in
+//	for functions compiled before (see FunctionCache).
+// NOTE: Each TcFunction owns a private SymbolTable and label namespace, so
+//	the functions of a program are independent at code generation time.
+//	Large programs generate their functions in parallel, each into a buffer
+//	of its own, and the buffers are then spliced together in source order.
+//	The output is identical to generating the functions one by one.
+// Only the functions that the entry point may call are generated at all
+//	(see Reach(..)); the others are dropped from the output.
 public class TcProgram extends TreeCode {
 
-	public TcProgram(String name, String entryPoint, TcFunction[] funcList) {
+	// Programs with fewer functions than this are not worth fanning out.
+	public static final int PARALLEL_THRESHOLD = 64;
+
+	public TcProgram(String name, String entryPoint, TreeCode[] funcList) {
 		super(null);
 
 		outName = name;
 		entry = entryPoint;
 		defs = funcList;
+		workers = ForkJoinPool.commonPool();
+		metrics = null;
+		live = null;
+	}
+
+	// Parallel(..) method sets the pool that functions are generated on.  A
+	//	NULL pool generates all functions sequentially on the calling thread.
+	public void Parallel(ForkJoinPool pool) {
+		workers = pool;
+	}
+
+	// Measure(..) method has the code generation of each function recorded
+	//	in 'm', whose functions are those of the program, in order.
+	public void Measure(Metrics m) {
+		metrics = m;
+	}
+
+	// Fold(..) method runs the constant folding pass over every function.
+	@Override
+	public TreeCode Fold() {
+		for (TreeCode f : defs) {
+			f.Fold();
+		}
+		return this;
+	}
+
+	// Reach(..) method works out the functions reachable from the entry
+	//	point, of any arity, through the calls of each function reached, and
+	//	has only those generated.  It returns the MASM names of the others,
+	//	in program order.  Calls of functions not in the program (BASIS, say)
+	//	lead nowhere.  A program without its entry point is left whole, for
+	//	morpho to report.
+	public List<String> Reach() {
+		HashMap<String, int[]>	byName = new HashMap<>(2 * defs.length);
+		int[]					pending = new int[defs.length];
+		int						top = 0;
+		ArrayList<String>		callees = new ArrayList<>();
+		ArrayList<String>		dropped = new ArrayList<>();
+
+		live = new boolean[defs.length];
+		for (int i = 0; i < defs.length; ++i) {
+			String name = defs[i].Defines();
+			int[] same = byName.get(name);
+			if (same == null) {
+				byName.put(name, new int[] { i });
+			} else {
+				int[] more = Arrays.copyOf(same, same.length + 1);
+				more[same.length] = i;
+				byName.put(name, more);
+			}
+			if (name == null || name.startsWith(entry + "[f")) {
+				live[i] = true;
+				pending[top++] = i;
+			}
+		}
+		if (top == 0) {
+			live = null;
+			return dropped;
+		}
+
+		while (top > 0) {
+			callees.clear();
+			defs[pending[--top]].Calls(callees);
+			for (String c : callees) {
+				int[] called = byName.get(c);
+				if (called == null) {
+					continue;
+				}
+				for (int i : called) {
+					if (!live[i]) {
+						live[i] = true;
+						pending[top++] = i;
+					}
+				}
+			}
+		}
+
+		for (int i = 0; i < defs.length; ++i) {
+			if (!live[i]) {
+				dropped.add(defs[i].Defines());
+				if (metrics != null && metrics.Function(i) != null) {
+					metrics.Dropped(metrics.Function(i));
+				}
+			}
+		}
+		return dropped;
 	}
 
 	@Override
-	public String[] MasmCode(boolean tail)
+	public void MasmCode(MasmWriter out, boolean tail)
 			throws CompilerError
 	{
-		ArrayList<String> output = new ArrayList<>();
-		output.add("\"" + outName + ".mexe\" = " + entry + " in");
-		output.add("!");
-		output.add("{{");
+		out.Emit("\"" + outName + ".mexe\" = " + entry + " in");
+		out.Emit("!");
+		out.Emit("{{");
 
-		for (TcFunction f : defs) {
-			output.addAll(Arrays.asList(f.MasmCode(false)));
+		int count = 0;
+		for (int i = 0; i < defs.length; ++i) {
+			if (live == null || live[i]) {
+				++count;
+			}
+		}
+		if (workers == null || count < PARALLEL_THRESHOLD) {
+			for (int i = 0; i < defs.length; ++i) {
+				if (live == null || live[i]) {
+					Generate(i, out);
+				}
+			}
+		} else {
+			ParallelMasmCode(out);
 		}
 
-		output.add("}}");
-		output.add("*");
-		output.add("BASIS");
-		output.add(";");
+		out.Emit("}}");
+		out.Emit("*");
+		out.Emit("BASIS");
+		out.Emit(";");
+	}
+
+	private void ParallelMasmCode(MasmWriter out)
+			throws CompilerError
+	{
+		ArrayList<Callable<StringBuilder>> jobs = new ArrayList<>(defs.length);
+		for (int i = 0; i < defs.length; ++i) {
+			if (live != null && !live[i]) {
+				continue;
+			}
+			final int n = i;
+			jobs.add(() -> {
+				StringBuilder block = new StringBuilder();
+				Generate(n, out.Fork(block));
+				return block;
+			});
+		}
 
-		return output.toArray(new String[0]);
+		// Splice in source order.  Should several functions fail, the error
+		//	reported is that of the first, just as in sequential generation.
+		List<Future<StringBuilder>> blocks = workers.invokeAll(jobs);
+		for (Future<StringBuilder> b : blocks) {
+			try {
+				out.Splice(b.get());
+			} catch (ExecutionException e) {
+				// The pool may wrap the CompilerError more than once.
+				for (Throwable t = e.getCause(); t != null; t = t.getCause()) {
+					if (t instanceof CompilerError) {
+						throw (CompilerError) t;
+					}
+				}
+				throw new FatalError("Code generation failed: " + e.getCause());
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new FatalError("Code generation interrupted.");
+			}
+		}
+	}
+
+	// Generate(..) method generates the function numbered 'i', measuring it
+	//	if the program is measured.
+	private void Generate(int i, MasmWriter out)
+			throws CompilerError
+	{
+		Metrics.Function m = (metrics != null ? metrics.Function(i) : null);
+		if (m == null) {
+			defs[i].MasmCode(out, false);
+			return;
+		}
+
+		Metrics.FunctionEvent e = m.Event();
+		long t0 = System.nanoTime();
+		long b0 = Metrics.Allocated();
+		int lines = out.Lines();
+		int labels = out.Labels();
+		out.Count(true);
+		defs[i].MasmCode(out, false);
+		metrics.Generated(m, e, t0, b0, out.Labels() - labels, out.Lines() - lines);
 	}
 
 	private String 			outName;
 	private String 			entry;
-	private TcFunction[]	defs;
-}
\ No newline at end of file
+	private TreeCode[]		defs;
+	private ForkJoinPool	workers;
+	private Metrics			metrics;
+
+	// The functions to generate, by number, or NULL for all of them.
+	private boolean[]		live;
+}
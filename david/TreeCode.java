@@ -1,19 +1,22 @@
 
+import java.util.List;
+
 // TreeCode class bundles a tree-like intermediate code structure,
 //	with the methods required to construct it piecewise, rather than
 //	all at once.
 // TreeCode is intended to be used by Parser.java -- this is the intermediate
 //	code generation step.  Final code is generated from a valid TreeCode
-//	object by MasmCode virtual method.
-// NOTE: The implementation (internal data structures etc.) here is a naive
-//	first pass; any and all performance considerations have been ignored
-//	at this time.
+//	object by MasmCode virtual method, which writes its MASM straight into
+//	the MasmWriter it is handed.
+// NOTE: TreeCodes are the program and its functions; the code within a
+//	function is not a graph of objects but a compact tree of its own,
+//	held in an Arena.
 public class TreeCode {
 	protected final SymbolTable table;
 
 	public TreeCode(SymbolTable t) {
 		/*	Turns out that SymbolTable _can_ be NULL!  Some TreeCodes will not
-			 require any access to the symbol table, such as TcLiteral, or
+			 require any access to the symbol table, such as TcCached, or
 			 TcProgram (which holds multiple TcFunction codes, each with
 			 their own SymbolTable).
 
@@ -24,8 +27,25 @@ public class TreeCode {
 		table = t;
 	}
 
+	// Resolve(..) method is the name resolution pass, run over each function
+	//	once it has been parsed.  Every name is looked up in the SymbolTable
+	//	just once, and its slot is kept on the tree, so that generating final
+	//	code does not modify anything and can be repeated.  By default a
+	//	TreeCode has no names to resolve.
+	public void Resolve()
+			throws SymbolError
+	{
+	}
+
+	// Fold(..) method is the constant folding pass, run over the tree before
+	//	final code generation.  It returns the TreeCode to use in place of
+	//	this one; by default a TreeCode has nothing to fold.
+	public TreeCode Fold() {
+		return this;
+	}
+
 	// Default TreeCode cannot produce any sensible MASM.
-	public String[] MasmCode(boolean tail)
+	public void MasmCode(MasmWriter out, boolean tail)
 			throws CompilerError
 	{
 		throw new FatalError("Default TreeCode cannot generate MASM.");
@@ -34,16 +54,21 @@ public class TreeCode {
 	// Default behaviour for a TreeCode if it is asked whether tail-optimization
 	//	is possible is to respond with a firm no.  Specific TreeCodes that do
 	//	offer tail-optimization must override this method.
+	// A TreeCode answering yes promises that its MASM, when generated with
+	//	'tail' set, returns from the function on every path (e.g. ends with
+	//	(CallR ..) or (Return)), so that no (Return) need follow it.
 	public boolean CanTailOpt() {
 		return false;
 	}
 
-	// Static newLabel(..) method provided to generate unique labels as jump
-	//	targets.  Intended to be used by TreeCode subclasses, method is
-	//	currently invisible to outside objects.
-	protected static String newLabel() {
-		return "_tcl" + Integer.toString(lCounter++);
+	// Defines(..) method returns the MASM name of the function the code
+	//	defines (e.g. "fibo[f1]"), and Calls(..) adds the MASM names of the
+	//	functions it calls to 'callees' (see TcProgram.Reach(..)).  By
+	//	default a TreeCode defines and calls nothing.
+	public String Defines() {
+		return null;
 	}
 
-	private static int lCounter = 0;
-}
\ No newline at end of file
+	public void Calls(List<String> callees) {
+	}
+}